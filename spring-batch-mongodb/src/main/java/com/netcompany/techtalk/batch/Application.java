@@ -17,7 +17,9 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.data.mongo.MongoReactiveDataAutoConfiguration;
 import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.autoconfigure.mongo.MongoReactiveAutoConfiguration;
 
 import javax.annotation.PostConstruct;
 import java.io.File;
@@ -26,7 +28,10 @@ import java.util.Date;
 import java.util.TimeZone;
 
 @EnableBatchProcessing
-@SpringBootApplication(exclude = { DataSourceAutoConfiguration.class })
+// reactive Mongo client is configured in MongoDBConfig, Spring Data reactive support is not used
+@SpringBootApplication(exclude = {
+        DataSourceAutoConfiguration.class, MongoReactiveAutoConfiguration.class, MongoReactiveDataAutoConfiguration.class
+})
 public class Application implements CommandLineRunner {
 
     private static final Logger logger = LoggerFactory.getLogger(Application.class);
@@ -35,6 +40,10 @@ public class Application implements CommandLineRunner {
 	private JobConfigurer jobConfigurer;
 	@Value("${csv.directory}")
     private String csvDirectory = "./csv";
+	@Value("${job.forceRefresh:false}")
+	private boolean forceRefresh;
+	@Value("${job.rollback:}")
+	private String rollback;
 
     @Autowired
 	public Application(MainBatchConfigurer batchConfigurer, JobConfigurer jobConfigurer) {
@@ -59,7 +68,11 @@ public class Application implements CommandLineRunner {
             long timestamp = System.currentTimeMillis();
             logger.debug("Start TECH-TALK batch with timestamp '{}'.", timestamp);
 
-            JobParameters jobParameters = new JobParametersBuilder().addDate(JobParameter.RUN_ID.key(), new Date(timestamp)).toJobParameters();
+            JobParameters jobParameters = new JobParametersBuilder()
+                    .addDate(JobParameter.RUN_ID.key(), new Date(timestamp))
+                    .addString(JobParameter.FORCE_REFRESH.key(), String.valueOf(forceRefresh))
+                    .addString(JobParameter.ROLLBACK.key(), rollback)
+                    .toJobParameters();
 
             SimpleJobLauncher jobLauncher = batchConfigurer.getJobLauncher();
 
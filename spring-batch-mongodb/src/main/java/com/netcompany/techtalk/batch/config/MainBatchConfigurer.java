@@ -12,7 +12,11 @@ import org.springframework.batch.core.repository.dao.StepExecutionDao;
 import org.springframework.batch.core.repository.support.SimpleJobRepository;
 import org.springframework.batch.support.transaction.ResourcelessTransactionManager;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.transaction.PlatformTransactionManager;
 
 /** Created by Pawel Gawedzki on 16-Mar-18.*/
@@ -46,6 +50,13 @@ public class MainBatchConfigurer implements BatchConfigurer {
         return jobLauncher;
     }
 
+    @Bean
+    public TaskExecutor stepTaskExecutor(@Value("${job.parallel.concurrencyLimit:3}") int concurrencyLimit) {
+        SimpleAsyncTaskExecutor taskExecutor = new SimpleAsyncTaskExecutor("step-");
+        taskExecutor.setConcurrencyLimit(concurrencyLimit);
+        return taskExecutor;
+    }
+
     @Override
     public JobExplorer getJobExplorer() {
         return new SimpleJobExplorer(mongoJobInstanceDao, mongoJobExecutionDao, mongoStepExecutionDao, mongoExecutionContextDao);
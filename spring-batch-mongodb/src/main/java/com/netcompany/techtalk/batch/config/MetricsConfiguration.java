@@ -0,0 +1,33 @@
+package com.netcompany.techtalk.batch.config;
+
+import com.netcompany.techtalk.batch.util.Timeout;
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.logging.LoggingMeterRegistry;
+import io.micrometer.core.instrument.logging.LoggingRegistryConfig;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/** Metrics are written to the log every 'metrics.log.interval' and once more when the application is closed. */
+@Configuration
+public class MetricsConfiguration {
+
+    @Bean
+    public MeterRegistry meterRegistry(@Value("${metrics.log.interval:1m}") String interval) {
+        LoggingRegistryConfig config = new LoggingRegistryConfig() {
+            @Override
+            public String get(String key) {
+                return null;
+            }
+
+            @Override
+            public Duration step() {
+                return Duration.ofMillis(Timeout.timeout(interval));
+            }
+        };
+        return new LoggingMeterRegistry(config, Clock.SYSTEM);
+    }
+}
@@ -1,12 +1,29 @@
 package com.netcompany.techtalk.batch.config;
 
+import com.mongodb.ConnectionString;
 import com.mongodb.MongoClient;
 import com.mongodb.MongoClientOptions;
+import com.mongodb.MongoClientSettings;
 import com.mongodb.MongoClientURI;
+import com.mongodb.MongoCompressor;
 import com.mongodb.WriteConcern;
+import com.mongodb.reactivestreams.client.MongoClients;
+import com.netcompany.techtalk.batch.util.Timeout;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.annotation.Primary;
 import org.springframework.data.mongodb.config.AbstractMongoConfiguration;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.SimpleMongoDbFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /** Created by Pawel Gawedzki on 15-Mar-18.*/
 @Configuration
@@ -18,16 +35,112 @@ public class MongoDBConfig extends AbstractMongoConfiguration {
     @Value("${mongodb.host}")
     private String host;
 
+    @Value("${mongodb.control.maxPoolSize:10}")
+    private int controlMaxPoolSize;
+    @Value("${mongodb.control.connectTimeout:10s}")
+    private String controlConnectTimeout;
+    @Value("${mongodb.control.socketTimeout:1m}")
+    private String controlSocketTimeout;
+    @Value("${mongodb.control.maxWaitTime:30s}")
+    private String controlMaxWaitTime;
+
+    @Value("${mongodb.data.maxPoolSize:50}")
+    private int dataMaxPoolSize;
+    @Value("${mongodb.data.compressors:zlib}")
+    private String dataCompressors;
+    @Value("${mongodb.data.connectTimeout:10s}")
+    private String dataConnectTimeout;
+    @Value("${mongodb.data.socketTimeout:0s}")
+    private String dataSocketTimeout;
+    @Value("${mongodb.data.maxWaitTime:2h}")
+    private String dataMaxWaitTime;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
     @Override
     protected String getDatabaseName() {
         return database;
     }
 
+    /** Control plane client, used by job repository DAOs. Its write concern is strict. */
     @Override
     public MongoClient mongoClient() {
         MongoClientOptions.Builder mongoClientOptionsBuilder = MongoClientOptions.builder()
                 .writeConcern(WriteConcern.ACKNOWLEDGED)
+                .connectionsPerHost(controlMaxPoolSize)
+                .connectTimeout(Timeout.timeout(controlConnectTimeout))
+                .socketTimeout(Timeout.timeout(controlSocketTimeout))
+                .maxWaitTime(Timeout.timeout(controlMaxWaitTime))
+                .addConnectionPoolListener(new MongoPoolMetrics("control", meterRegistry))
                 .socketKeepAlive(true);
         return new MongoClient(new MongoClientURI(host, mongoClientOptionsBuilder));
     }
+
+    @Primary
+    @Bean
+    @Override
+    public MongoTemplate mongoTemplate() throws Exception {
+        return super.mongoTemplate();
+    }
+
+    /**
+     * Data plane client, used by steps for bulk loads. It has its own pool, so updates of job metadata by the control
+     * plane client do not wait for connections busy with multi-MB bulk inserts.
+     */
+    @Bean(destroyMethod = "close")
+    public MongoClient dataMongoClient() {
+        MongoClientOptions.Builder mongoClientOptionsBuilder = MongoClientOptions.builder()
+                .writeConcern(WriteConcern.ACKNOWLEDGED)
+                .connectionsPerHost(dataMaxPoolSize)
+                .compressorList(compressors())
+                .connectTimeout(Timeout.timeout(dataConnectTimeout))
+                .socketTimeout(Timeout.timeout(dataSocketTimeout))
+                .maxWaitTime(Timeout.timeout(dataMaxWaitTime))
+                .addConnectionPoolListener(new MongoPoolMetrics("data", meterRegistry));
+        return new MongoClient(new MongoClientURI(host, mongoClientOptionsBuilder));
+    }
+
+    @Bean
+    public MongoTemplate dataMongoTemplate() throws Exception {
+        return new MongoTemplate(new SimpleMongoDbFactory(dataMongoClient(), database), mappingMongoConverter());
+    }
+
+    /** Used only by REACTIVE bulk writer, so connections are opened when the writer needs them. Tuned as data plane. */
+    @Bean
+    @Lazy
+    public com.mongodb.reactivestreams.client.MongoClient reactiveMongoClient() {
+        MongoClientSettings settings = MongoClientSettings.builder()
+                .applyConnectionString(new ConnectionString(host))
+                .compressorList(compressors())
+                .applyToConnectionPoolSettings(builder -> builder
+                        .maxSize(dataMaxPoolSize)
+                        .maxWaitTime(Timeout.timeout(dataMaxWaitTime), TimeUnit.MILLISECONDS)
+                        .addConnectionPoolListener(new MongoPoolMetrics("reactive", meterRegistry)))
+                .applyToSocketSettings(builder -> builder
+                        .connectTimeout(Timeout.timeout(dataConnectTimeout), TimeUnit.MILLISECONDS)
+                        .readTimeout(Timeout.timeout(dataSocketTimeout), TimeUnit.MILLISECONDS))
+                .build();
+        return MongoClients.create(settings);
+    }
+
+    /** Compressors are offered to the server in the given order, it uses the first one it supports. */
+    private List<MongoCompressor> compressors() {
+        return Arrays.stream(dataCompressors.split(","))
+                .map(String::trim)
+                .filter(name -> !name.isEmpty())
+                .map(MongoDBConfig::compressor)
+                .collect(Collectors.toList());
+    }
+
+    private static MongoCompressor compressor(String name) {
+        switch (name.toLowerCase()) {
+            case "snappy":
+                return MongoCompressor.createSnappyCompressor();
+            case "zlib":
+                return MongoCompressor.createZlibCompressor();
+            default:
+                throw new IllegalArgumentException(String.format("Compressor [%s] is not supported.", name));
+        }
+    }
 }
@@ -0,0 +1,64 @@
+package com.netcompany.techtalk.batch.config;
+
+import com.mongodb.event.ConnectionAddedEvent;
+import com.mongodb.event.ConnectionCheckedInEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionPoolListenerAdapter;
+import com.mongodb.event.ConnectionPoolWaitQueueEnteredEvent;
+import com.mongodb.event.ConnectionPoolWaitQueueExitedEvent;
+import com.mongodb.event.ConnectionRemovedEvent;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Connections of one Mongo client, summed over all servers, are exposed as gauges tagged with the client name. */
+class MongoPoolMetrics extends ConnectionPoolListenerAdapter {
+
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicInteger checkedOut = new AtomicInteger();
+    private final AtomicInteger waitQueueSize = new AtomicInteger();
+
+    MongoPoolMetrics(String client, MeterRegistry meterRegistry) {
+        registerGauge(meterRegistry, client, "size", size);
+        registerGauge(meterRegistry, client, "checkedOut", checkedOut);
+        registerGauge(meterRegistry, client, "waitQueueSize", waitQueueSize);
+    }
+
+    private void registerGauge(MeterRegistry meterRegistry, String client, String state, AtomicInteger value) {
+        Gauge.builder("mongodb.pool." + state, value, AtomicInteger::get)
+                .description(String.format("Connections to Mongo in state [%s].", state))
+                .tag("client", client)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void connectionAdded(ConnectionAddedEvent event) {
+        size.incrementAndGet();
+    }
+
+    @Override
+    public void connectionRemoved(ConnectionRemovedEvent event) {
+        size.decrementAndGet();
+    }
+
+    @Override
+    public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+        checkedOut.incrementAndGet();
+    }
+
+    @Override
+    public void connectionCheckedIn(ConnectionCheckedInEvent event) {
+        checkedOut.decrementAndGet();
+    }
+
+    @Override
+    public void waitQueueEntered(ConnectionPoolWaitQueueEnteredEvent event) {
+        waitQueueSize.incrementAndGet();
+    }
+
+    @Override
+    public void waitQueueExited(ConnectionPoolWaitQueueExitedEvent event) {
+        waitQueueSize.decrementAndGet();
+    }
+}
@@ -1,29 +1,83 @@
 package com.netcompany.techtalk.batch.config;
 
 import com.netcompany.techtalk.batch.util.Timeout;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.http.converter.ByteArrayHttpMessageConverter;
 import org.springframework.web.client.RestTemplate;
 
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
 
 /** Created by Pawel Gawedzki on 21-Mar-18.*/
 @Configuration
 public class RestConfiguration {
 
     @Bean
-    public RestTemplate restTemplate(RestTemplateBuilder restTemplateBuilder, @Value("${request.connection.timeout}") String timeout) {
+    public RestTemplate restTemplate(RestTemplateBuilder restTemplateBuilder, CloseableHttpClient httpClient,
+                                     @Value("${request.connection.timeout}") String timeout) {
         return restTemplateBuilder
+                .requestFactory(() -> new HttpComponentsClientHttpRequestFactory(httpClient))
                 .setConnectTimeout(Timeout.timeout(timeout))
                 .setReadTimeout(Timeout.timeout(timeout))
                 .additionalMessageConverters(new ByteArrayHttpMessageConverter())
                 .build();
     }
 
+    @Bean
+    public PoolingHttpClientConnectionManager connectionManager(@Value("${request.pool.maxTotal:20}") int maxTotal,
+                                                                @Value("${request.pool.maxPerRoute:10}") int maxPerRoute,
+                                                                MeterRegistry meterRegistry) {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxTotal);
+        connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+        registerPoolGauge(meterRegistry, connectionManager, "leased", PoolStats::getLeased);
+        registerPoolGauge(meterRegistry, connectionManager, "pending", PoolStats::getPending);
+        registerPoolGauge(meterRegistry, connectionManager, "available", PoolStats::getAvailable);
+        registerPoolGauge(meterRegistry, connectionManager, "max", PoolStats::getMax);
+        return connectionManager;
+    }
+
+    private void registerPoolGauge(MeterRegistry meterRegistry, PoolingHttpClientConnectionManager connectionManager,
+                                   String state, ToIntFunction<PoolStats> value) {
+        Gauge.builder("http.client.pool." + state, connectionManager, manager -> value.applyAsInt(manager.getTotalStats()))
+                .description(String.format("Connections to Palantir in state [%s].", state))
+                .register(meterRegistry);
+    }
+
+    /**
+     * One client with a connection pool is shared by all requests to Palantir, so connections are kept alive between
+     * steps and attempts. Responses are not decompressed by the client, see ResumableDownload.
+     */
+    @Bean
+    public CloseableHttpClient httpClient(PoolingHttpClientConnectionManager connectionManager,
+                                          @Value("${request.connection.timeout}") String timeout,
+                                          @Value("${request.pool.idleTimeout:1m}") String idleTimeout) {
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(Timeout.timeout(timeout))
+                .setSocketTimeout(Timeout.timeout(timeout))
+                .build();
+        return HttpClientBuilder.create()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .disableContentCompression()
+                .evictExpiredConnections()
+                .evictIdleConnections(Timeout.timeout(idleTimeout), TimeUnit.MILLISECONDS)
+                .build();
+    }
+
     @Bean
     public ExecutorService executorService() {
         return Executors.newFixedThreadPool(10);
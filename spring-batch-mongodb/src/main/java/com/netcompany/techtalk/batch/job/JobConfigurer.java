@@ -3,9 +3,14 @@ package com.netcompany.techtalk.batch.job;
 import org.springframework.batch.core.*;
 import org.springframework.batch.core.configuration.annotation.JobBuilderFactory;
 import org.springframework.batch.core.configuration.annotation.StepBuilderFactory;
+import org.springframework.batch.core.job.builder.FlowBuilder;
+import org.springframework.batch.core.job.flow.Flow;
 import org.springframework.batch.core.job.flow.JobExecutionDecider;
+import org.springframework.batch.core.job.flow.support.SimpleFlow;
 import org.springframework.batch.core.step.tasklet.Tasklet;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.stereotype.Component;
 
 import java.util.Date;
@@ -14,8 +19,13 @@ import java.util.Date;
 @Component
 public class JobConfigurer {
 
+    private enum JobMode {SEQUENTIAL, PARALLEL}
+
     private static final String JOB_NAME = "TECH-TALK";
 
+    @Value("${job.mode:SEQUENTIAL}")
+    private String jobMode = JobMode.SEQUENTIAL.name();
+
     @Autowired
     private JobBuilderFactory jobBuilderFactory;
     @Autowired
@@ -36,10 +46,18 @@ public class JobConfigurer {
     private JobExecutionDecider stepDecider;
     @Autowired
     private StepExecutionListener stepExecutionListener;
+    @Autowired
+    private JobExecutionListener jobExecutionListener;
+    @Autowired
+    private TaskExecutor stepTaskExecutor;
 
     public Job synchroniseDatabasesJob() {
+        if (JobMode.PARALLEL.name().equalsIgnoreCase(jobMode)) {
+            return parallelSynchroniseDatabasesJob();
+        }
         return jobBuilderFactory.get(JOB_NAME)
                 .incrementer(parametersIncrementer())
+                .listener(jobExecutionListener)
                 .preventRestart()
                 // '*' means that we do not care if it fails or success, step are independent and should be executed that way
                 .start(operationRouteStep()).on("*").to(equipmentCargoStep())
@@ -52,6 +70,34 @@ public class JobConfigurer {
                 .build();
     }
 
+    private Job parallelSynchroniseDatabasesJob() {
+        // steps are independent, so they run side by side; trackingBookingStep still waits for all of them
+        Flow dataSetsFlow = new FlowBuilder<SimpleFlow>("dataSetsFlow")
+                .split(stepTaskExecutor)
+                .add(
+                        flow(operationRouteStep()),
+                        flow(equipmentCargoStep()),
+                        flow(cargoConditioningStep()),
+                        flow(haulageInfoStep()),
+                        flow(haulageEquipmentStep())
+                )
+                .build();
+
+        return jobBuilderFactory.get(JOB_NAME)
+                .incrementer(parametersIncrementer())
+                .listener(jobExecutionListener)
+                .preventRestart()
+                .start(dataSetsFlow).on("*").to(stepDecider)
+                .from(stepDecider).on("COMPLETED").to(trackingBookingStep())
+                .from(trackingBookingStep()).on("*").end()
+                .end()
+                .build();
+    }
+
+    private Flow flow(Step step) {
+        return new FlowBuilder<SimpleFlow>(step.getName() + "Flow").start(step).build();
+    }
+
     private JobParametersIncrementer parametersIncrementer() {
         return jobParameters -> {
             if (jobParameters == null || jobParameters.isEmpty()) {
@@ -0,0 +1,34 @@
+package com.netcompany.techtalk.batch.job;
+
+import com.netcompany.techtalk.batch.step.GenerationDrops;
+import com.netcompany.techtalk.batch.step.IndexBuilder;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobExecutionListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/** Job is finished only when indexes deferred by its steps are built and retired generations are dropped. */
+@Component("jobExecutionListener")
+public class JobExecutionListenerImpl implements JobExecutionListener {
+
+    @Autowired
+    private IndexBuilder indexBuilder;
+    @Autowired
+    private GenerationDrops generationDrops;
+
+    @Override
+    public void beforeJob(JobExecution jobExecution) {}
+
+    @Override
+    public void afterJob(JobExecution jobExecution) {
+        try {
+            indexBuilder.awaitDeferredBuilds();
+            generationDrops.awaitDrops();
+        } catch (Exception e) {
+            jobExecution.setStatus(BatchStatus.FAILED);
+            jobExecution.setExitStatus(ExitStatus.FAILED.addExitDescription(e));
+        }
+    }
+}
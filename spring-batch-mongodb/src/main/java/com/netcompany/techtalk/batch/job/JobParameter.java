@@ -3,7 +3,9 @@ package com.netcompany.techtalk.batch.job;
 /** Created by Pawel Gawedzki on 19-Mar-18.*/
 public enum JobParameter {
 
-    RUN_ID ("runId");
+    RUN_ID ("runId"),
+    FORCE_REFRESH ("forceRefresh"),
+    ROLLBACK ("rollback");
 
     private String key;
     JobParameter(String key) {
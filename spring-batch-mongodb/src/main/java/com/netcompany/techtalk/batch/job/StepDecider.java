@@ -30,7 +30,9 @@ public class StepDecider implements JobExecutionDecider {
     @Override
     public FlowExecutionStatus decide(JobExecution jobExecution, StepExecution stepExecution) {
         Map<String, ExitStatus> taskStatusMap = stepsStatusContainer.getStepStatusMap();
-        FlowExecutionStatus flowExecutionStatus = new FlowExecutionStatus(stepExecution.getExitStatus().getExitCode());
+        // after a split flow there is no single previous step, so status of all steps decides
+        FlowExecutionStatus flowExecutionStatus = stepExecution == null ?
+                FlowExecutionStatus.COMPLETED : new FlowExecutionStatus(stepExecution.getExitStatus().getExitCode());
         Map<String, String> notCompletedMap = taskStatusMap.entrySet().stream()
                 .filter(entry -> ExitStatus.COMPLETED.compareTo(entry.getValue()) != 0)
                 .collect(toMap(Map.Entry::getKey, entry -> entry.getValue().getExitCode()));
@@ -5,17 +5,18 @@ import org.springframework.batch.core.StepExecution;
 import org.springframework.batch.core.StepExecutionListener;
 import org.springframework.stereotype.Component;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**Created by Pawel Gawedzki on 04-Jun-2018.*/
 @Component("stepExecutionListener")
 public class StepExecutionListenerImpl implements StepExecutionListener, StepsStatusContainer {
 
+    // steps can run in parallel, so their statuses are reported from different threads
     private Map<String, ExitStatus> taskStatusMap;
 
     public StepExecutionListenerImpl() {
-        this.taskStatusMap = new HashMap<>();
+        this.taskStatusMap = new ConcurrentHashMap<>();
     }
 
     @Override
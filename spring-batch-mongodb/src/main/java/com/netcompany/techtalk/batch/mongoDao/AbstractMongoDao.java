@@ -2,6 +2,8 @@ package com.netcompany.techtalk.batch.mongoDao;
 
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
 import com.mongodb.client.model.UpdateOptions;
 import org.bson.Document;
 import org.slf4j.Logger;
@@ -59,9 +61,11 @@ abstract class AbstractMongoDao {
     Long getNextId(String name, MongoTemplate mongoTemplate) {
         MongoCollection<Document> collection = mongoTemplate.getDb().getCollection(SEQUENCES_COLLECTION_NAME);
         Document sequence = new Document("name", name);
-        collection.updateOne(sequence, new Document("$inc", new Document("value", 1L)), updateOptions());
+        // increment and read in one operation, so steps of parallel flows never get the same id
+        Document nextSequence = collection.findOneAndUpdate(sequence, new Document("$inc", new Document("value", 1L)),
+                new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER));
 
-        Long nextId = makeList(collection.find(sequence).limit(1)).getFirst().getLong("value");
+        Long nextId = nextSequence == null ? null : nextSequence.getLong("value");
         return nextId == null ? 0L : nextId;
     }
 
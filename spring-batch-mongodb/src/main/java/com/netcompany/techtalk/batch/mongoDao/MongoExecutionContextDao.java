@@ -2,6 +2,8 @@ package com.netcompany.techtalk.batch.mongoDao;
 
 import com.mongodb.client.MongoCollection;
 import org.bson.Document;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.ExitStatus;
 import org.springframework.batch.core.JobExecution;
 import org.springframework.batch.core.StepExecution;
 import org.springframework.batch.core.repository.dao.ExecutionContextDao;
@@ -22,6 +24,7 @@ public class MongoExecutionContextDao extends AbstractMongoDao implements Execut
 
     // Job Execution Contexts Constants
     private static final String STEP_EXECUTION_ID_KEY = "stepExecutionId";
+    private static final String STEP_NAME_KEY = "stepName";
     private static final String TYPE_SUFFIX = "_TYPE";
 
     @PostConstruct
@@ -96,6 +99,31 @@ public class MongoExecutionContextDao extends AbstractMongoDao implements Execut
         return executionContext;
     }
 
+    /** @return execution context of the last completed execution of the step, empty when it has never completed */
+    public ExecutionContext getLastCompletedStepContext(String stepName) {
+        Document lastStepExecution = mongoTemplate.getCollection(StepExecution.class.getSimpleName())
+                .find(new Document(STEP_NAME_KEY, stepName).append(STATUS_KEY, BatchStatus.COMPLETED.name()))
+                .sort(new Document(STEP_EXECUTION_ID_KEY, -1))
+                .first();
+        if (lastStepExecution == null) {
+            return new ExecutionContext();
+        }
+        return getExecutionContext(STEP_EXECUTION_ID_KEY, lastStepExecution.getLong(STEP_EXECUTION_ID_KEY));
+    }
+
+    /** @return execution context of the previous execution of the step when it failed, otherwise empty one */
+    public ExecutionContext getLastFailedStepContext(StepExecution stepExecution) {
+        Document lastStepExecution = mongoTemplate.getCollection(StepExecution.class.getSimpleName())
+                .find(new Document(STEP_NAME_KEY, stepExecution.getStepName())
+                        .append(STEP_EXECUTION_ID_KEY, new Document("$lt", stepExecution.getId())))
+                .sort(new Document(STEP_EXECUTION_ID_KEY, -1))
+                .first();
+        if (lastStepExecution == null || !ExitStatus.FAILED.getExitCode().equals(lastStepExecution.getString(EXIT_CODE_KEY))) {
+            return new ExecutionContext();
+        }
+        return getExecutionContext(STEP_EXECUTION_ID_KEY, lastStepExecution.getLong(STEP_EXECUTION_ID_KEY));
+    }
+
     protected MongoCollection<Document> getCollection() {
         return mongoTemplate.getCollection(ExecutionContext.class.getSimpleName());
     }
@@ -1,28 +1,47 @@
 package com.netcompany.techtalk.batch.step;
 
+import com.mongodb.MongoException;
 import com.mongodb.MongoNamespace;
+import com.mongodb.WriteConcern;
 import com.mongodb.bulk.BulkWriteResult;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.InsertManyOptions;
 import com.mongodb.client.model.RenameCollectionOptions;
+import com.mongodb.reactivestreams.client.MongoClient;
 import com.netcompany.techtalk.batch.data.CreationDetails;
+import com.netcompany.techtalk.batch.job.JobParameter;
 import com.netcompany.techtalk.batch.mapper.ColumnMapper;
+import com.netcompany.techtalk.batch.mongoDao.MongoExecutionContextDao;
+import com.netcompany.techtalk.batch.util.Compression;
+import com.netcompany.techtalk.batch.util.ReadAheadInputStream;
+import com.netcompany.techtalk.batch.util.StringUtils;
 import com.netcompany.techtalk.batch.util.TimeLog;
+import com.netcompany.techtalk.batch.util.Timeout;
 import com.netcompany.techtalk.batch.web.DataClient;
 import com.netcompany.techtalk.batch.web.QueryColumnBuilder;
 import com.netcompany.techtalk.batch.web.ResultType;
 import com.netcompany.techtalk.batch.web.UrlBuilder;
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVParser;
-import org.apache.commons.csv.CSVRecord;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.io.input.TeeInputStream;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.conversions.Bson;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.StepExecution;
 import org.springframework.batch.core.scope.context.ChunkContext;
 import org.springframework.batch.core.step.tasklet.Tasklet;
 import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.env.Environment;
 import org.springframework.data.mongodb.core.BulkOperations;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
@@ -30,34 +49,170 @@ import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.core.query.Update;
 
 import java.io.*;
+import java.nio.file.Paths;
+import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToIntFunction;
 import java.util.stream.Collectors;
 
 /**Created by Pawel Gawedzki on 15-Mar-18.*/
 abstract class AbstractStep implements Tasklet {
 
+    private enum IngestMode {FILE, STREAM}
+    private enum SyncMode {FULL, DELTA}
+    private enum Tokenizer {COMMONS, MAPPED}
+    private enum Encoder {DOCUMENT, RAW}
+    private enum BulkWriter {BLOCKING, REACTIVE}
+    private enum CreationDetailsMode {CLIENT, SERVER}
+    private enum StagingWriteConcern {STRICT, W1, MAJORITY}
+    private enum Barrier {JOURNALED, MAJORITY}
+    private enum SwapMode {RENAME, GENERATIONS}
+    private enum SwapPointer {VIEW, ALIAS}
+
     protected final Logger logger;
     private static final String ERROR_COLLECTION_NAME = "csvErrors";
+    private static final String CREATED = "CREATED";
+    private static final String DATA_SET_VERSION = "dataSetVersion";
 
     @Value("${palantir.endpoint}")
     private String basicUrl;
     @Value("${mongodb.bulk.batchSize}")
     private int batchSize = 1000;
+    @Value("${mongodb.bulk.targetBytes:16777216}")
+    private long bulkTargetBytes = 16 * 1024 * 1024;
+    @Value("${mongodb.bulk.adaptive.enabled:false}")
+    private boolean adaptiveBulk;
+    @Value("${mongodb.bulk.adaptive.minBytes:1048576}")
+    private long adaptiveMinBytes = 1024 * 1024;
+    @Value("${mongodb.bulk.adaptive.maxBytes:33554432}")
+    private long adaptiveMaxBytes = 32 * 1024 * 1024;
+    @Value("${mongodb.bulk.adaptive.targetLatencyMillis:1000}")
+    private long adaptiveTargetLatencyMillis = 1000;
+    @Value("${mongodb.bulk.retry.maxAttempts:5}")
+    private int retryMaxAttempts = 5;
+    @Value("${mongodb.bulk.retry.backoffMillis:100}")
+    private long retryBackoffMillis = 100;
+    @Value("${mongodb.bulk.retry.maxBackoffMillis:5000}")
+    private long retryMaxBackoffMillis = 5000;
+    @Value("${mongodb.staging.writeConcern:W1}")
+    private String stagingWriteConcern = StagingWriteConcern.W1.name();
+    @Value("${mongodb.staging.barrier:JOURNALED}")
+    private String stagingBarrier = Barrier.JOURNALED.name();
+    @Value("${mongodb.bulk.encoder:DOCUMENT}")
+    private String encoder = Encoder.DOCUMENT.name();
+    @Value("${mongodb.bulk.writer:BLOCKING}")
+    private String bulkWriter = BulkWriter.BLOCKING.name();
+    @Value("${mongodb.bulk.maxInFlight:4}")
+    private int maxInFlight = 4;
     @Value("${csv.chunkSize}")
     private int chunkSize = 50000;
+    @Value("${csv.chunkBytes:268435456}")
+    private long chunkBytes = 256 * 1024 * 1024;
     @Value("${palantir.branch}")
     private String branchName;
     @Value("${csv.directory}")
     private String csvDirectory = "./csv";
+    @Value("${csv.ingestMode:FILE}")
+    private String ingestMode = IngestMode.FILE.name();
+    @Value("${csv.tokenizer:COMMONS}")
+    private String tokenizer = Tokenizer.COMMONS.name();
+    @Value("${csv.typedValues:false}")
+    private boolean typedValues;
+    @Value("${csv.errors.maxRatio:1.0}")
+    private double maxErrorRatio = 1.0;
+    @Value("${csv.errors.minRows:1000}")
+    private long errorMinRows = 1000;
+    @Value("${csv.errors.logFirst:10}")
+    private int errorLogFirst = 10;
+    @Value("${csv.errors.logEvery:10000}")
+    private int errorLogEvery = 10000;
+    @Value("${csv.stream.readAheadBytes:67108864}")
+    private int readAheadBytes = 64 * 1024 * 1024;
+    @Value("${csv.stream.teeDirectory:}")
+    private String teeDirectory;
+    @Value("${pipeline.enabled:false}")
+    private boolean pipelineEnabled;
+    @Value("${pipeline.converters:4}")
+    private int pipelineConverters = 4;
+    @Value("${pipeline.writers:4}")
+    private int pipelineWriters = 4;
+    @Value("${pipeline.queueCapacity:16}")
+    private int pipelineQueueCapacity = 16;
+    @Value("${creationDetails.mode:CLIENT}")
+    private String creationDetailsMode = CreationDetailsMode.CLIENT.name();
+    @Value("${index.strategy:AFTER_LOAD}")
+    private String indexStrategy = IndexBuilder.Strategy.AFTER_LOAD.name();
+    @Value("${schema.cache.enabled:false}")
+    private boolean schemaCacheEnabled;
+    @Value("${sync.mode:FULL}")
+    private String syncMode = SyncMode.FULL.name();
+    @Value("${sync.fullReloadOn:}")
+    private String fullReloadOn;
+    @Value("${sync.skipUnchanged:false}")
+    private boolean skipUnchanged;
+    @Value("${checkpoint.enabled:false}")
+    private boolean checkpointEnabled;
+    @Value("${checkpoint.directory:./csv-checkpoints}")
+    private String checkpointDirectory = "./csv-checkpoints";
+    @Value("${warmup.enabled:false}")
+    private boolean warmUpEnabled;
+    @Value("${warmup.budget:1m}")
+    private String warmUpBudget = "1m";
+    @Value("${swap.mode:RENAME}")
+    private String swapMode = SwapMode.RENAME.name();
+    @Value("${swap.pointer:VIEW}")
+    private String swapPointer = SwapPointer.VIEW.name();
+    @Value("${swap.keepFor:24h}")
+    private String swapKeepFor = "24h";
+    @Autowired
+    private Environment environment;
+    @Autowired
+    private IndexBuilder indexBuilder;
+    @Autowired
+    private ExecutorService executorService;
+    @Autowired
+    private GenerationDrops generationDrops;
+    @Autowired
+    private MongoExecutionContextDao executionContextDao;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    @Lazy
+    @Autowired
+    private MongoClient reactiveMongoClient;
 
     private MongoTemplate mongoTemplate;
+    private MongoTemplate stagingTemplate;
     private final DataClient dataClient;
     private final String dataSetName;
     private final String collectionName;
     private final String dataSetRid;
     private String[] headers;
-    private final String filePath;
-    private final Collection<CreationDetails> creationDetails;
+    private ColumnType[] columnTypes;
+    private Map<String, String> columns;
+    private SchemaCache schemaCache;
+    private Future<String> schemaRevalidation;
+    private String filePath;
+    private DeltaSynchroniser deltaSynchroniser;
+    private RawDocumentEncoder rawEncoder;
+    private CreationDetailsMerger creationDetailsMerger;
+    private ReactiveBulkWriter reactiveWriter;
+    private ErrorQuarantine errorQuarantine;
+    private BulkPacker bulkPacker;
+    private AdaptiveBulkController bulkController;
+    private BulkRetry bulkRetry;
+    private GenerationSwitch generationSwitch;
+    private LoadCheckpoint checkpoint;
+    private final AtomicLong stagedDocuments = new AtomicLong();
+    private final Object creationDetailsWindowLock = new Object();
+    private final Object creationDetailsUpsertLock = new Object();
+    private Set<CreationDetails> creationDetailsWindow;
+    private Date loadDate;
+    private int creationDetailsKeyIndex;
+    private boolean deltaSync;
 
     protected AbstractStep(DataClient dataClient, MongoTemplate mongoTemplate, String dataSetName, String collectionName, String dataSetRid) {
         this.dataClient = dataClient;
@@ -65,42 +220,305 @@ abstract class AbstractStep implements Tasklet {
         this.dataSetName = dataSetName;
         this.collectionName = collectionName;
         this.dataSetRid = dataSetRid;
-        this.filePath = String.format("%s/%s.csv", csvDirectory, dataSetName);
-        this.creationDetails = new HashSet<>();
         this.logger = LoggerFactory.getLogger(this.getClass());
     }
 
     @Override
     public RepeatStatus execute(StepContribution stepContribution, ChunkContext chunkContext) throws Exception {
         TimeLog timeLog = new TimeLog(getClass().getSimpleName());
+        generationSwitch = createGenerationSwitch();
+
+        if (isRollbackRequested(chunkContext.getStepContext().getStepExecution())) {
+            timeLog.logTime("rollback");
+            generationSwitch.rollback();
+            timeLog.done();
+            return RepeatStatus.FINISHED;
+        }
+
+        timeLog.logTime("checkDataSetVersion");
+        if (isDataSetUnchanged(chunkContext.getStepContext().getStepExecution())) {
+            timeLog.done();
+            return RepeatStatus.FINISHED;
+        }
+
+        timeLog.logTime("prepareSynchronisation");
+        prepareSynchronisation();
+        prepareCreationDetails();
+
+        IndexBuilder.Strategy strategy = getIndexStrategy();
+        prepareCheckpoint(chunkContext.getStepContext().getStepExecution());
+        if (checkpoint != null && checkpoint.isResumed()) {
+            logger.info("Loading of [{}] continues from row {} of [{}] into [{}].",
+                    dataSetName, checkpoint.getRows(), filePath, getTempCollectionName());
+        } else if (!deltaSync) {
+            timeLog.logTime("dropTemporaryCollection");
+            dropTemporaryCollection();
 
-        timeLog.logTime("dropTemporaryCollection");
-        dropTemporaryCollection();
+            if (strategy == IndexBuilder.Strategy.BEFORE_LOAD) {
+                timeLog.logTime("createIndexes");
+                indexBuilder.build(getTempDBCollection(), getAllIndexModels(), strategy);
+            }
+        }
 
         timeLog.logTime("extractColumns");
         extractColumns();
+        prepareEncoder();
 
-        timeLog.logTime("getCsvResult");
-        getCsvResult();
+        if (isStreamIngest()) {
+            timeLog.logTime("streamAndSaveToDB");
+            streamAndSaveToDB();
+        } else {
+            if (checkpoint == null || !checkpoint.isResumed()) {
+                timeLog.logTime("getCsvResult");
+                getCsvResult();
+            }
 
-        timeLog.logTime("mapAndSaveToDB");
-        mapAndSaveToDB();
+            timeLog.logTime("mapAndSaveToDB");
+            mapAndSaveToDB();
+        }
 
-        //Create indexes
-        timeLog.logTime("createIndexes");
-        createIndexes();
+        if (deltaSync) {
+            timeLog.logTime("deleteUnseenRows");
+            deltaSynchroniser.deleteUnseen(getLiveDBCollection(), batchSize);
+            deltaSynchroniser.logSummary(collectionName);
+            mergeCreationDetails(collectionName);
+        } else {
+            if (strategy == IndexBuilder.Strategy.AFTER_LOAD) {
+                timeLog.logTime("createIndexes");
+                indexBuilder.build(getTempDBCollection(), getAllIndexModels(), strategy);
+            }
+            mergeCreationDetails(getTempCollectionName());
+
+            timeLog.logTime("awaitDurability");
+            awaitDurability(true);
 
-        timeLog.logTime("renameTempCollection");
-        renameTempCollection();
+            timeLog.logTime("renameTempCollection");
+            renameTempCollection();
 
-        timeLog.logTime("deleteFile");
-        deleteFile();
+            if (strategy == IndexBuilder.Strategy.DEFERRED) {
+                logger.debug("Indexes of [{}] are built in the background.", collectionName);
+                indexBuilder.buildDeferred(getLiveDBCollection(), getAllIndexModels());
+            }
+
+            if (dataSetProperty("warmup", "enabled", Boolean.class, warmUpEnabled)) {
+                timeLog.logTime("warmUp");
+                warmUp();
+            }
+        }
+
+        if (!isStreamIngest()) {
+            timeLog.logTime("deleteFile");
+            deleteFile();
+        }
 
         timeLog.done();
         return RepeatStatus.FINISHED;
     }
 
+    /**
+     * Restartable load keeps its staged file in the checkpoint directory until it succeeds and saves a checkpoint after
+     * every chunk. Documents get row numbers as _id, so rows saved after the last checkpoint are not duplicated when
+     * they are loaded again. Only sequential FULL load of a downloaded file by BLOCKING writer can be restarted.
+     */
+    private void prepareCheckpoint(StepExecution stepExecution) throws IOException {
+        checkpoint = null;
+        filePath = String.format("%s/%s.csv", csvDirectory, dataSetName);
+        if (deltaSync || isStreamIngest() || !dataSetProperty("checkpoint", "enabled", Boolean.class, checkpointEnabled)) {
+            return;
+        }
+        filePath = String.format("%s/%s.csv", checkpointDirectory, dataSetName);
+        boolean staged = new File(filePath).exists() && mongoTemplate.collectionExists(getTempCollectionName());
+        checkpoint = LoadCheckpoint.start(stepExecution, executionContextDao, getTempCollectionName(), DATA_SET_VERSION, staged);
+        if (!checkpoint.isResumed()) {
+            FileUtils.deleteQuietly(new File(filePath));
+        }
+    }
+
+    private GenerationSwitch createGenerationSwitch() throws Exception {
+        String mode = dataSetProperty("swap", "mode", String.class, swapMode);
+        if (!SwapMode.GENERATIONS.name().equalsIgnoreCase(mode)) {
+            return null;
+        }
+        String keepForValue = dataSetProperty("swap", "keepFor", String.class, swapKeepFor);
+        long keepFor = Timeout.timeoutMillis(keepForValue);
+        if (keepFor <= 0) {
+            String errMsg = String.format("swap.keepFor of [%s] must be positive, it is [%s].", dataSetName, keepForValue);
+            logger.error(errMsg);
+            throw new Exception(errMsg);
+        }
+        boolean view = SwapPointer.VIEW.name().equalsIgnoreCase(dataSetProperty("swap", "pointer", String.class, swapPointer));
+        return new GenerationSwitch(mongoTemplate.getDb(), collectionName, keepFor, view, logger);
+    }
+
+    /** rollback job parameter has comma separated names of data sets to roll back instead of loading them. */
+    private boolean isRollbackRequested(StepExecution stepExecution) throws Exception {
+        String rollback = stepExecution.getJobParameters().getString(JobParameter.ROLLBACK.key(), "");
+        boolean requested = Arrays.stream(rollback.split(",")).map(String::trim).anyMatch(dataSetName::equals);
+        if (requested && generationSwitch == null) {
+            String errMsg = String.format("Rollback of [%s] needs swap mode %s.", dataSetName, SwapMode.GENERATIONS);
+            logger.error(errMsg);
+            throw new Exception(errMsg);
+        }
+        return requested;
+    }
+
+    /**
+     * Version of the data set is kept in the step execution context. Step is finished right away when the version
+     * is the same as in the last completed execution, unless forceRefresh job parameter is true.
+     */
+    private boolean isDataSetUnchanged(StepExecution stepExecution) {
+        String version = dataClient.getDataSetVersion(urlBuilder());
+        if (version == null) {
+            return false;
+        }
+        stepExecution.getExecutionContext().putString(DATA_SET_VERSION, version);
+        if (!dataSetProperty("sync", "skipUnchanged", Boolean.class, skipUnchanged)) {
+            return false;
+        }
+        if (Boolean.parseBoolean(stepExecution.getJobParameters().getString(JobParameter.FORCE_REFRESH.key()))) {
+            logger.info("Refresh of [{}] is forced.", dataSetName);
+            return false;
+        }
+        String lastVersion = executionContextDao.getLastCompletedStepContext(stepExecution.getStepName()).getString(DATA_SET_VERSION, null);
+        if (version.equals(lastVersion) && mongoTemplate.collectionExists(getLiveCollectionName())) {
+            logger.info("Data set [{}] has not changed since the last load, version [{}]. Loading is skipped.", dataSetName, version);
+            return true;
+        }
+        logger.debug("Version of [{}] is [{}], last loaded version is [{}].", dataSetName, version, lastVersion);
+        return false;
+    }
+
+    private void prepareSynchronisation() {
+        List<String> naturalKey = Arrays.stream(dataSetProperty("sync", "naturalKey", String.class, "").split(","))
+                .map(String::trim)
+                .filter(column -> !column.isEmpty())
+                .collect(Collectors.toList());
+        deltaSynchroniser = naturalKey.isEmpty() ? null : new DeltaSynchroniser(naturalKey, logger);
+        deltaSync = false;
+
+        String mode = dataSetProperty("sync", "mode", String.class, syncMode);
+        if (!SyncMode.DELTA.name().equalsIgnoreCase(mode)) {
+            return;
+        }
+        if (deltaSynchroniser == null) {
+            logger.warn("Natural key of [{}] is not specified, {} synchronisation is used.", dataSetName, SyncMode.FULL);
+        } else if (!mongoTemplate.collectionExists(getLiveCollectionName())) {
+            logger.info("Collection [{}] does not exist, {} synchronisation is used.", collectionName, SyncMode.FULL);
+        } else if (isFullReloadDay()) {
+            logger.info("Reconciliation day, {} synchronisation of [{}] is used.", SyncMode.FULL, collectionName);
+        } else {
+            try {
+                deltaSynchroniser.ensureNaturalKeyIndex(getLiveDBCollection());
+                deltaSync = true;
+                logger.info("{} synchronisation of [{}] by natural key {}.", SyncMode.DELTA, collectionName, naturalKey);
+            } catch (MongoException e) {
+                logger.warn("Natural key index can not be created on [{}], {} synchronisation is used.", collectionName, SyncMode.FULL, e);
+            }
+        }
+    }
+
+    private IndexBuilder.Strategy getIndexStrategy() {
+        String strategy = dataSetProperty("index", "strategy", String.class, indexStrategy);
+        return IndexBuilder.Strategy.valueOf(strategy.toUpperCase());
+    }
+
+    private List<IndexModel> getAllIndexModels() {
+        List<IndexModel> indexModels = new ArrayList<>(getIndexModels());
+        if (deltaSynchroniser != null) {
+            indexModels.add(deltaSynchroniser.naturalKeyIndex());
+        }
+        return indexModels;
+    }
+
+    private void prepareCreationDetails() {
+        loadDate = new Date();
+        creationDetailsMerger = null;
+        String mode = dataSetProperty("creationDetails", "mode", String.class, creationDetailsMode);
+        if (!CreationDetailsMode.SERVER.name().equalsIgnoreCase(mode)) {
+            return;
+        }
+        CreationDetailsMerger merger = new CreationDetailsMerger(mongoTemplate.getDb(), logger);
+        if (merger.isSupported()) {
+            creationDetailsMerger = merger;
+        } else {
+            logger.warn("{} creation details are used for [{}].", CreationDetailsMode.CLIENT, dataSetName);
+        }
+    }
+
+    private void mergeCreationDetails(String sourceCollectionName) {
+        if (creationDetailsMerger != null) {
+            creationDetailsMerger.merge(sourceCollectionName, getCreationDetailsKey(), CREATED, loadDate);
+        }
+    }
+
+    private void prepareEncoder() {
+        creationDetailsKeyIndex = Arrays.asList(headers).indexOf(getCreationDetailsKey());
+        rawEncoder = null;
+        if (!Encoder.RAW.name().equalsIgnoreCase(dataSetProperty("mongodb.bulk", "encoder", String.class, encoder))) {
+            return;
+        }
+        if (deltaSynchroniser != null) {
+            logger.info("Natural key of [{}] is specified, rows are encoded as {}.", dataSetName, Encoder.DOCUMENT);
+        } else {
+            rawEncoder = new RawDocumentEncoder(headers, columnTypes, CREATED);
+            logger.debug("Rows of [{}] are encoded as {} BSON.", dataSetName, Encoder.RAW);
+        }
+    }
+
+    private boolean isFullReloadDay() {
+        String today = LocalDate.now().getDayOfWeek().name();
+        return Arrays.stream(fullReloadOn.split(",")).map(String::trim).anyMatch(today::equalsIgnoreCase);
+    }
+
+    /**
+     * Makes all documents staged so far durable and checks their number. When it does not match, the checkpoint is
+     * invalidated, so the load is not continued from it.
+     * @param exact whether documents are counted, not only taken from collection metadata
+     */
+    private void awaitDurability(boolean exact) throws Exception {
+        Barrier barrier = Barrier.valueOf(dataSetProperty("mongodb.staging", "barrier", String.class, stagingBarrier).toUpperCase());
+        WriteConcern writeConcern = barrier == Barrier.MAJORITY ? WriteConcern.MAJORITY : WriteConcern.JOURNALED;
+        if (!new DurabilityBarrier(mongoTemplate.getDb(), writeConcern, logger).await(getTempDBCollection(), stagedDocuments.get(), exact)) {
+            if (checkpoint != null) {
+                checkpoint.invalidate();
+            }
+            String errMsg = String.format("Staged documents of [%s] are not complete, [%s] is not renamed.",
+                    dataSetName, getTempCollectionName());
+            logger.error(errMsg);
+            throw new Exception(errMsg);
+        }
+    }
+
+    /** Bulk loads into TMP collection use relaxed write concern, job repository and live collections keep the strict one. */
+    private WriteConcern getStagingWriteConcern() {
+        String profile = dataSetProperty("mongodb.staging", "writeConcern", String.class, stagingWriteConcern);
+        switch (StagingWriteConcern.valueOf(profile.toUpperCase())) {
+            case W1:
+                return WriteConcern.W1.withJournal(false);
+            case MAJORITY:
+                return WriteConcern.MAJORITY.withJournal(false);
+            default:
+                return mongoTemplate.getDb().getWriteConcern();
+        }
+    }
+
+    /** warmup.[dataSetName].queries has filters of hot documents as json, separated by ';'. */
+    private void warmUp() {
+        List<Bson> hotQueries = Arrays.stream(dataSetProperty("warmup", "queries", String.class, "").split(";"))
+                .map(String::trim)
+                .filter(query -> !query.isEmpty())
+                .map(Document::parse)
+                .collect(Collectors.toList());
+        long budget = Timeout.timeout(dataSetProperty("warmup", "budget", String.class, warmUpBudget));
+        new CacheWarmer(dataSetName, budget, meterRegistry, logger).warmUp(getLiveDBCollection(), getAllIndexModels(), hotQueries);
+    }
+
     private void renameTempCollection() {
+        if (generationSwitch != null) {
+            generationSwitch.publish(getTempDBCollection());
+            generationSwitch.dropExpired(generationDrops);
+            return;
+        }
         logger.debug("Renaming '{}' collection to '{}'", getTempCollectionName(), collectionName);
         MongoCollection<Document> tempDBCollection = getTempDBCollection();
         MongoNamespace mongoNamespace = new MongoNamespace(mongoTemplate.getDb().getName(), collectionName);
@@ -123,57 +541,338 @@ abstract class AbstractStep implements Tasklet {
                 .resultType(ResultType.csv);
     }
 
-    private void mapAndSaveToDB() throws IOException {
-        List<Document> objectsToSave = new ArrayList<>(chunkSize);
-        List<Document> errorObjects = new LinkedList<>();
+    private boolean isStreamIngest() {
+        return IngestMode.STREAM.name().equalsIgnoreCase(ingestMode);
+    }
+
+    private void streamAndSaveToDB() throws Exception {
+        logger.debug("Streaming data set [{}.{}].", branchName, dataSetName);
+        InputStream dataStream = new ReadAheadInputStream(
+                dataClient.openDataStream(urlBuilder()), readAheadBytes, dataSetName + "-read-ahead"
+        );
+        if (!StringUtils.nullOrEmpty(teeDirectory)) {
+            File teeFile = new File(teeDirectory, dataSetName + ".csv");
+            logger.debug("Copying streamed data set into [{}].", teeFile.getPath());
+            dataStream = new TeeInputStream(dataStream, FileUtils.openOutputStream(teeFile), true);
+        }
+        mapAndSaveToDB(dataStream);
+    }
+
+    private void mapAndSaveToDB() throws Exception {
+        Compression compression;
+        try (InputStream stagedFile = new BufferedInputStream(new FileInputStream(filePath))) {
+            compression = Compression.of(stagedFile);
+        }
+        boolean mapped = Tokenizer.MAPPED.name().equalsIgnoreCase(tokenizer);
+        if (mapped && compression == Compression.NONE) {
+            try (CsvReader reader = new MappedCsvReader(Paths.get(filePath))) {
+                saveToDB(reader);
+            }
+            return;
+        }
+        if (mapped) {
+            logger.info("Staged file [{}] is {} compressed, {} tokenizer is used.", filePath, compression, Tokenizer.COMMONS);
+        }
+        CountingInputStream stagedInput = new CountingInputStream(new FileInputStream(filePath));
+        CountingInputStream csvInput = new CountingInputStream(Compression.decompress(stagedInput));
+        mapAndSaveToDB(csvInput);
+        logger.debug("{} bytes of csv read from {} bytes of staged file compressed with {}.",
+                csvInput.getByteCount(), stagedInput.getByteCount(), compression);
+    }
+
+    private void mapAndSaveToDB(InputStream dataStream) throws Exception {
+        try (CsvReader reader = new CommonsCsvReader(dataStream)) {
+            saveToDB(reader);
+        }
+    }
+
+    private void saveToDB(CsvReader reader) throws Exception {
+        verifyCachedSchema();
+        stagedDocuments.set(checkpoint != null ? checkpoint.getDocuments() : 0);
+        WriteConcern writeConcern = getStagingWriteConcern();
+        logger.debug("[{}] is staged with write concern {}.", dataSetName, writeConcern);
+        stagingTemplate = new MongoTemplate(mongoTemplate.getMongoDbFactory(), mongoTemplate.getConverter());
+        stagingTemplate.setWriteConcern(writeConcern);
+        bulkPacker = new BulkPacker(batchSize, dataSetProperty("mongodb.bulk", "targetBytes", Long.class, bulkTargetBytes));
+        bulkController = createBulkController();
+        bulkRetry = new BulkRetry(
+                dataSetName,
+                dataSetProperty("mongodb.bulk.retry", "maxAttempts", Integer.class, retryMaxAttempts),
+                dataSetProperty("mongodb.bulk.retry", "backoffMillis", Long.class, retryBackoffMillis),
+                dataSetProperty("mongodb.bulk.retry", "maxBackoffMillis", Long.class, retryMaxBackoffMillis),
+                checkpoint != null,
+                meterRegistry,
+                logger
+        );
+        reactiveWriter = createReactiveWriter();
+        errorQuarantine = createErrorQuarantine();
+        if (checkpoint != null) {
+            errorQuarantine.resume(checkpoint.getRows(), checkpoint.getErrors());
+        }
+        if (pipelineEnabled && checkpoint == null) {
+            pipelineSaveToDB(reader);
+        } else {
+            sequentialSaveToDB(reader);
+        }
+        errorQuarantine.finish();
+        if (reactiveWriter != null) {
+            reactiveWriter.awaitAll();
+        }
+    }
+
+    private AdaptiveBulkController createBulkController() {
+        if (!dataSetProperty("mongodb.bulk.adaptive", "enabled", Boolean.class, adaptiveBulk)) {
+            return null;
+        }
+        AdaptiveBulkController controller = new AdaptiveBulkController(
+                dataSetName,
+                dataSetProperty("mongodb.bulk.adaptive", "minBytes", Long.class, adaptiveMinBytes),
+                dataSetProperty("mongodb.bulk.adaptive", "maxBytes", Long.class, adaptiveMaxBytes),
+                dataSetProperty("mongodb.bulk.adaptive", "targetLatencyMillis", Long.class, adaptiveTargetLatencyMillis),
+                dataSetProperty("mongodb.bulk", "maxInFlight", Integer.class, maxInFlight),
+                bulkPacker,
+                logger
+        );
+        logger.debug("[{}] bulk requests are sized adaptively, starting with {} bytes.", dataSetName, controller.getTargetBytes());
+        return controller;
+    }
+
+    private ErrorQuarantine createErrorQuarantine() {
+        return new ErrorQuarantine(
+                dataSetName,
+                batchSize,
+                dataSetProperty("csv.errors", "maxRatio", Double.class, maxErrorRatio),
+                dataSetProperty("csv.errors", "minRows", Long.class, errorMinRows),
+                dataSetProperty("csv.errors", "logFirst", Integer.class, errorLogFirst),
+                dataSetProperty("csv.errors", "logEvery", Integer.class, errorLogEvery),
+                errorObjects -> saveIntoCollection(mongoTemplate, errorObjects, ERROR_COLLECTION_NAME, this::failOnRejection),
+                meterRegistry,
+                logger
+        );
+    }
+
+    private ReactiveBulkWriter createReactiveWriter() {
+        String writer = dataSetProperty("mongodb.bulk", "writer", String.class, bulkWriter);
+        if (deltaSync || !BulkWriter.REACTIVE.name().equalsIgnoreCase(writer)) {
+            return null;
+        }
+        if (checkpoint != null) {
+            logger.info("[{}] is restartable, it is inserted by {} writer.", dataSetName, BulkWriter.BLOCKING);
+            return null;
+        }
+        int inFlight = dataSetProperty("mongodb.bulk", "maxInFlight", Integer.class, maxInFlight);
+        logger.debug("[{}] is inserted by {} writer with up to {} bulk request(s) in flight.", dataSetName, BulkWriter.REACTIVE, inFlight);
+        ReactiveBulkWriter reactiveBulkWriter = new ReactiveBulkWriter(
+                dataSetName, reactiveMongoClient.getDatabase(mongoTemplate.getDb().getName()).withWriteConcern(getStagingWriteConcern()),
+                inFlight, bulkController, logger
+        );
+        if (bulkController != null) {
+            bulkController.attach(reactiveBulkWriter);
+        }
+        return reactiveBulkWriter;
+    }
+
+    private void sequentialSaveToDB(CsvReader reader) throws Exception {
+        ConvertedChunk chunk = new ConvertedChunk(chunkSize);
+        long maxChunkBytes = dataSetProperty("csv", "chunkBytes", Long.class, chunkBytes);
         int numberOfDocuments = 0;
-        int chunkNumber = 0;
-
-        try (
-                InputStream inputStream = new FileInputStream(filePath);
-                Reader inputStreamReader = new InputStreamReader(inputStream);
-                final CSVParser parser = new CSVParser(inputStreamReader, CSVFormat.DEFAULT)
-        ) {
-            for (CSVRecord record : parser) {
-                if (record.size() != headers.length) {
-                    List<String> list = new ArrayList<>();
-                    record.iterator().forEachRemaining(list::add);
-                    logger.error("Wrong column mapping. There are [values, headers] == <{}, {}>. Row with error parsing [{}].",
-                            record.size(),
-                            headers.length,
-                            list.stream().collect(Collectors.joining("~")),
-                            new IllegalArgumentException("Wrong column mapping.")
-                    );
-                    errorObjects.add(createErrorObject(record));
-                    continue;
-                }
+        int chunkNumber = checkpoint == null ? 0 : checkpoint.getChunk();
+        long rowNumber = 0;
+        long loadedRows = checkpoint == null ? 0 : checkpoint.getRows();
 
-                objectsToSave.add(createDBObject(record));
+        for (CsvRow record : reader) {
+            rowNumber++;
+            if (rowNumber <= loadedRows) {
+                continue;
+            }
+            convertRecord(record, chunk, checkpoint == null ? null : rowNumber);
 
-                if (objectsToSave.size() == chunkSize) {
-                    chunkNumber++;
-                    logger.debug("Saving chunk number {}.", chunkNumber);
-                    saveIntoCollection(objectsToSave, getTempCollectionName());
-                    numberOfDocuments += objectsToSave.size();
-                    objectsToSave.clear();
+            if (chunk.size() == chunkSize || chunk.bytes >= maxChunkBytes) {
+                chunkNumber++;
+                logger.debug("Saving chunk number {}, {} documents, about {} bytes.", chunkNumber, chunk.size(), chunk.bytes);
+                saveChunk(chunk);
+                numberOfDocuments += chunk.size();
+                chunk = new ConvertedChunk(chunkSize);
+                saveCheckpoint(rowNumber, chunkNumber);
+            }
+        }
+        if (chunk.size() > 0) {
+            saveChunk(chunk);
+            numberOfDocuments += chunk.size();
+        }
 
-                    upsertCreationDetails();
-                }
+        logger.debug("{} documents saved.", numberOfDocuments);
+    }
+
+    private void saveCheckpoint(long rowNumber, int chunkNumber) throws Exception {
+        if (checkpoint == null) {
+            return;
+        }
+        errorQuarantine.flush();
+        awaitDurability(false);
+        checkpoint.save(rowNumber, chunkNumber, stagedDocuments.get(), errorQuarantine.getErrors());
+        logger.debug("Checkpoint of [{}] saved at row {}, chunk {}.", dataSetName, rowNumber, chunkNumber);
+    }
+
+    private void pipelineSaveToDB(CsvReader reader) throws Exception {
+        AtomicLong numberOfDocuments = new AtomicLong();
+
+        LoadPipeline<CsvRow, ConvertedChunk> pipeline = new LoadPipeline<>(
+                dataSetName,
+                pipelineProperty("converters", pipelineConverters),
+                pipelineProperty("writers", pipelineWriters),
+                pipelineProperty("queueCapacity", pipelineQueueCapacity),
+                logger
+        );
+        creationDetailsWindow = new HashSet<>();
+        // every chunk is saved by one bulk execution, so writers work on batchSize rows at a time
+        pipeline.run(reader.iterator(), batchSize, this::convertChunk, chunk -> {
+            writeChunk(chunk);
+            collectCreationDetails(chunk.creationDetails);
+            numberOfDocuments.addAndGet(chunk.size());
+        });
+        Set<CreationDetails> lastWindow;
+        synchronized (creationDetailsWindowLock) {
+            lastWindow = creationDetailsWindow;
+            creationDetailsWindow = null;
+        }
+        upsertCreationDetailsWindow(lastWindow);
+
+        logger.debug("{} documents saved.", numberOfDocuments.get());
+    }
+
+    private int pipelineProperty(String key, int defaultValue) {
+        return dataSetProperty("pipeline", key, Integer.class, defaultValue);
+    }
+
+    /** Reads [prefix].[dataSetName].[key] property, so settings can be specified per data set. */
+    private <T> T dataSetProperty(String prefix, String key, Class<T> type, T defaultValue) {
+        return environment.getProperty(String.format("%s.%s.%s", prefix, dataSetName, key), type, defaultValue);
+    }
+
+    private void saveChunk(ConvertedChunk chunk) throws Exception {
+        writeChunk(chunk);
+        if (creationDetailsMerger == null) {
+            upsertCreationDetails(chunk.creationDetails);
+        }
+    }
+
+    /**
+     * Creation details of pipeline chunks are collected into a window of chunkSize distinct keys, like the ones of
+     * sequential chunks. Full windows are upserted one at a time, so writers never upsert the same key concurrently.
+     */
+    private void collectCreationDetails(Set<CreationDetails> creationDetails) {
+        if (creationDetailsMerger != null) {
+            return;
+        }
+        Set<CreationDetails> fullWindow = null;
+        synchronized (creationDetailsWindowLock) {
+            creationDetailsWindow.addAll(creationDetails);
+            if (creationDetailsWindow.size() >= chunkSize) {
+                fullWindow = creationDetailsWindow;
+                creationDetailsWindow = new HashSet<>();
             }
-            if (!objectsToSave.isEmpty()) {
-                saveIntoCollection(objectsToSave, getTempCollectionName());
-                numberOfDocuments += objectsToSave.size();
-                upsertCreationDetails();
+        }
+        if (fullWindow != null) {
+            upsertCreationDetailsWindow(fullWindow);
+        }
+    }
+
+    private void upsertCreationDetailsWindow(Set<CreationDetails> window) {
+        synchronized (creationDetailsUpsertLock) {
+            upsertCreationDetails(window);
+        }
+    }
+
+    private void writeChunk(ConvertedChunk chunk) throws Exception {
+        if (rawEncoder != null && reactiveWriter != null) {
+            insertReactive(RawBsonDocument.class, chunk.rawDocuments, BsonSize::of);
+            stagedDocuments.addAndGet(chunk.rawDocuments.size());
+        } else if (rawEncoder != null) {
+            int rejected = saveIntoCollection(getTempRawCollection(), chunk.rawDocuments);
+            stagedDocuments.addAndGet(chunk.rawDocuments.size() - rejected);
+        } else {
+            saveDocuments(chunk.documents);
+        }
+    }
+
+    private void saveDocuments(List<Document> documents) throws Exception {
+        if (deltaSynchroniser == null) {
+            saveIntoTempCollection(documents);
+            return;
+        }
+        List<Document> uniqueDocuments = deltaSynchroniser.withoutDuplicates(documents);
+        if (deltaSync) {
+            logger.debug("Synchronising [{}] with collection [{}]", dataSetName, collectionName);
+            deltaSynchroniser.synchronise(getLiveDBCollection(), uniqueDocuments, batchSize);
+        } else {
+            saveIntoTempCollection(uniqueDocuments);
+        }
+    }
+
+    private void saveIntoTempCollection(List<Document> documents) throws Exception {
+        int rejected = 0;
+        if (reactiveWriter != null) {
+            insertReactive(Document.class, documents, BsonSize::of);
+        } else {
+            rejected = saveIntoCollection(stagingTemplate, documents, getTempCollectionName(), this::quarantine);
+        }
+        stagedDocuments.addAndGet(documents.size() - rejected);
+    }
+
+    private <T> void insertReactive(Class<T> documentClass, List<T> documents, ToIntFunction<T> bsonSize) throws Exception {
+        for (List<T> batch : bulkPacker.pack(documents, bsonSize)) {
+            long bytes = bulkController == null ? 0 : bytesOf(batch, bsonSize);
+            reactiveWriter.insert(getTempCollectionName(), documentClass, batch, bytes);
+        }
+    }
+
+    private ConvertedChunk convertChunk(List<CsvRow> records) throws Exception {
+        ConvertedChunk chunk = new ConvertedChunk(records.size());
+        for (CsvRow record : records) {
+            convertRecord(record, chunk, null);
+        }
+        return chunk;
+    }
+
+    /** @param id _id of the document, null when ObjectId is generated */
+    private void convertRecord(CsvRow record, ConvertedChunk chunk, Long id) throws Exception {
+        errorQuarantine.countRow();
+        if (record.size() != headers.length) {
+            long errorNumber = errorQuarantine.add(createErrorObject(record));
+            if (errorQuarantine.isLogged(errorNumber)) {
+                logWrongColumnMapping(record, errorNumber);
             }
-            if (!errorObjects.isEmpty()) {
-                saveIntoCollection(errorObjects, ERROR_COLLECTION_NAME);
+        } else if (rawEncoder != null) {
+            long created = System.currentTimeMillis();
+            RawBsonDocument rawDocument = rawEncoder.encode(record, created, id);
+            chunk.rawDocuments.add(rawDocument);
+            chunk.bytes += BsonSize.heapOf(rawDocument);
+            if (creationDetailsMerger == null) {
+                Object key = creationDetailsKeyIndex < 0 ? null : record.get(creationDetailsKeyIndex);
+                chunk.creationDetails.add(createCreationDetail(key, new Date(created)));
             }
+        } else {
+            Document document = createDBObject(record, chunk.creationDetails, id);
+            chunk.documents.add(document);
+            chunk.bytes += BsonSize.heapOf(document);
         }
+    }
 
-        logger.debug("{} documents saved. {} error documents saved.", numberOfDocuments, errorObjects.size());
+    private void logWrongColumnMapping(CsvRow record, long errorNumber) {
+        List<String> list = new ArrayList<>();
+        for (int i = 0; i < record.size(); i++) {
+            list.add(record.get(i));
+        }
+        logger.error("Wrong column mapping. There are [values, headers] == <{}, {}>. Row with error parsing [{}]. Wrong row number {}.",
+                record.size(),
+                headers.length,
+                String.join("~", list),
+                errorNumber
+        );
     }
 
-    private Document createErrorObject(CSVRecord record) {
+    private Document createErrorObject(CsvRow record) {
         Document errorObject = new Document();
         for (int i = 0; i < record.size(); i++) {
             if (i < headers.length) {
@@ -183,24 +882,36 @@ abstract class AbstractStep implements Tasklet {
             }
         }
         errorObject.put("DATA_SET_NAME", dataSetName);
-        errorObject.put("CREATED", new Date(System.currentTimeMillis()));
+        errorObject.put(CREATED, new Date(System.currentTimeMillis()));
 
         return errorObject;
     }
 
-    private Document createDBObject(CSVRecord record) {
+    private Document createDBObject(CsvRow record, Collection<CreationDetails> creationDetails, Long id) {
         Document dbObject = new Document();
+        if (id != null) {
+            dbObject.put("_id", id);
+        }
         for (int i = 0; i < headers.length; i++) {
-            dbObject.put(headers[i], record.get(i));
+            dbObject.put(headers[i], columnTypes[i].convert(record.get(i)));
+        }
+        if (deltaSynchroniser != null) {
+            deltaSynchroniser.addRowHash(dbObject, headers);
         }
-        addAdditionalData(dbObject);
+        addAdditionalData(dbObject, creationDetails);
         return dbObject;
     }
 
-    private void addAdditionalData(Document dbObject) {
+    private void addAdditionalData(Document dbObject, Collection<CreationDetails> creationDetails) {
         Date creationDate = new Date(System.currentTimeMillis());
-        dbObject.put("CREATED", creationDate);
-        creationDetails.add(createCreationDetail(dbObject, creationDate));
+        dbObject.put(CREATED, creationDate);
+        if (creationDetailsMerger == null) {
+            creationDetails.add(createCreationDetail(dbObject.get(getCreationDetailsKey()), creationDate));
+        }
+    }
+
+    private CreationDetails createCreationDetail(Object key, Date creationDate) {
+        return new CreationDetails(getCreationDetailsKey(), String.valueOf(key), creationDate);
     }
 
     private void dropTemporaryCollection() {
@@ -215,37 +926,164 @@ abstract class AbstractStep implements Tasklet {
     }
 
     private void extractColumns() throws Exception {
+        schemaCache = null;
+        schemaRevalidation = null;
+        String jsonResponse = null;
+        if (dataSetProperty("schema.cache", "enabled", Boolean.class, schemaCacheEnabled)) {
+            schemaCache = new SchemaCache(mongoTemplate.getDb(), logger);
+            jsonResponse = schemaCache.find(dataSetRid, branchName);
+        }
+        if (jsonResponse != null) {
+            // download starts with cached columns, they are verified before the first row is saved
+            schemaRevalidation = executorService.submit(this::requestSchemaJson);
+        } else {
+            jsonResponse = requestSchemaJson();
+            if (schemaCache != null) {
+                schemaCache.store(dataSetRid, branchName, jsonResponse);
+            }
+        }
+        columns = ColumnMapper.map(jsonResponse);
+        logger.debug("[{}.{}] has {} columns as follows {}.", branchName, dataSetName, columns.size(), columns);
+        headers = new String[columns.keySet().size()];
+        headers = columns.keySet().toArray(headers);
+
+        boolean typed = dataSetProperty("csv", "typedValues", Boolean.class, typedValues);
+        columnTypes = columns.values().stream()
+                .map(type -> typed ? ColumnType.of(type) : ColumnType.STRING)
+                .toArray(ColumnType[]::new);
+        if (typed) {
+            logger.debug("[{}.{}] values are stored as {}.", branchName, dataSetName, Arrays.toString(columnTypes));
+        }
+    }
+
+    private String requestSchemaJson() throws Exception {
         logger.debug("Requesting Palantir for data set columns [{}.{}].", branchName, dataSetName);
-        String jsonResponse = dataClient.getSchemaJson(getQueryColumnBuilder(branchName), basicUrl + "/query");
-        Map<String, String> nameTypeMap = ColumnMapper.map(jsonResponse);
-        logger.debug("[{}.{}] has {} columns as follows {}.", branchName, dataSetName, nameTypeMap.size(), nameTypeMap);
-        headers = new String[nameTypeMap.keySet().size()];
-        headers = nameTypeMap.keySet().toArray(headers);
+        return dataClient.getSchemaJson(getQueryColumnBuilder(branchName), basicUrl + "/query");
+    }
+
+    /** Waits for the schema requested in the background and fails when columns differ from the cached ones. */
+    private void verifyCachedSchema() throws Exception {
+        if (schemaRevalidation == null) {
+            return;
+        }
+        String jsonResponse;
+        try {
+            jsonResponse = schemaRevalidation.get();
+        } catch (ExecutionException e) {
+            logger.warn("Schema of [{}.{}] could not be revalidated, cached columns are used.", branchName, dataSetName, e.getCause());
+            return;
+        } finally {
+            schemaRevalidation = null;
+        }
+        if (schemaCache.isCurrent(dataSetRid, branchName, jsonResponse)) {
+            logger.debug("Cached schema of [{}.{}] is up to date.", branchName, dataSetName);
+            return;
+        }
+        schemaCache.store(dataSetRid, branchName, jsonResponse);
+        Map<String, String> currentColumns = ColumnMapper.map(jsonResponse);
+        if (!new ArrayList<>(currentColumns.entrySet()).equals(new ArrayList<>(columns.entrySet()))) {
+            String errMsg = String.format("Schema of [%s.%s] has changed. Cached columns %s, current columns %s.",
+                    branchName, dataSetName, columns, currentColumns);
+            logger.error(errMsg);
+            throw new Exception(errMsg);
+        }
+        logger.debug("Schema of [{}.{}] has changed but its columns are the same.", branchName, dataSetName);
     }
 
-    private void saveIntoCollection(List<Document> elements, String collectionName) {
+    /** @return number of documents rejected by Mongo and handed over to rejection */
+    private int saveIntoCollection(MongoTemplate template, List<Document> elements, String collectionName,
+                                   BulkRetry.Rejection<Document> rejection) throws Exception {
         logger.debug("Inserting [{}] into collection [{}]", dataSetName, collectionName);
 
         int numberOfExecution = 0;
         int totalDocumentsProcessed = 0;
+        int rejected = 0;
 
-        BulkOperations bulkOps = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, collectionName);
-        for (Document element : elements) {
-            bulkOps.insert(element);
-            totalDocumentsProcessed++;
-            if (totalDocumentsProcessed % batchSize == 0) {
-                numberOfExecution++;
-                executeBulk(bulkOps, numberOfExecution, totalDocumentsProcessed);
-                bulkOps = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, collectionName);
+        for (List<Document> batch : bulkPacker.pack(elements, BsonSize::of)) {
+            totalDocumentsProcessed += batch.size();
+            numberOfExecution++;
+            int executions = numberOfExecution;
+            int processed = totalDocumentsProcessed;
+            long start = System.currentTimeMillis();
+            try {
+                rejected += bulkRetry.insert(batch, documents -> {
+                    BulkOperations bulkOps = template.bulkOps(BulkOperations.BulkMode.UNORDERED, collectionName);
+                    bulkOps.insert(documents);
+                    executeBulk(bulkOps, executions, processed);
+                }, rejection);
+            } catch (RuntimeException e) {
+                reportBulkError(e);
+                throw e;
             }
+            reportBulk(batch, BsonSize::of, start);
         }
-        //if there is more but less than batch size we need to execute batch
-        if (totalDocumentsProcessed % batchSize != 0) {
+        return rejected;
+    }
+
+    /** @return number of documents rejected by Mongo, they are saved as wrong rows */
+    private int saveIntoCollection(MongoCollection<RawBsonDocument> collection, List<RawBsonDocument> elements) throws Exception {
+        logger.debug("Inserting [{}] into collection [{}]", dataSetName, collection.getNamespace().getCollectionName());
+
+        int numberOfExecution = 0;
+        int totalDocumentsProcessed = 0;
+        int rejected = 0;
+        InsertManyOptions options = new InsertManyOptions().ordered(false);
+        for (List<RawBsonDocument> batch : bulkPacker.pack(elements, BsonSize::of)) {
+            long start = System.currentTimeMillis();
+            try {
+                rejected += bulkRetry.insert(batch, documents -> collection.insertMany(documents, options),
+                        (document, reason) -> quarantine(toDocument(document), reason));
+            } catch (RuntimeException e) {
+                reportBulkError(e);
+                throw e;
+            }
+            reportBulk(batch, BsonSize::of, start);
+            totalDocumentsProcessed += batch.size();
             numberOfExecution++;
-            executeBulk(bulkOps, numberOfExecution, elements.size());
+            logger.debug("{} bulk execution(s). Documents [processed, inserted] = <{}, {}>", numberOfExecution, totalDocumentsProcessed, batch.size());
+        }
+        return rejected;
+    }
+
+    /** Document rejected by Mongo is saved with wrong rows, it counts as one of them. */
+    private void quarantine(Document document, String reason) throws Exception {
+        Document errorObject = new Document(document);
+        errorObject.remove("_id");
+        errorObject.put("DATA_SET_NAME", dataSetName);
+        errorObject.put("ERROR_REASON", reason);
+        errorObject.put(CREATED, new Date(System.currentTimeMillis()));
+        long errorNumber = errorQuarantine.add(errorObject);
+        if (errorQuarantine.isLogged(errorNumber)) {
+            logger.error("Document rejected by Mongo [{}]. Wrong row number {}.", reason, errorNumber);
         }
     }
 
+    private void failOnRejection(Document errorObject, String reason) throws Exception {
+        String errMsg = String.format("Wrong row of [%s] could not be saved into [%s]: %s", dataSetName, ERROR_COLLECTION_NAME, reason);
+        logger.error(errMsg);
+        throw new Exception(errMsg);
+    }
+
+    private static Document toDocument(RawBsonDocument rawDocument) {
+        return new DocumentCodec().decode(rawDocument.asBsonReader(), DecoderContext.builder().build());
+    }
+
+    private <T> void reportBulk(List<T> batch, ToIntFunction<T> bsonSize, long start) {
+        if (bulkController != null) {
+            bulkController.onAcknowledged(batch.size(), bytesOf(batch, bsonSize), System.currentTimeMillis() - start);
+        }
+    }
+
+    private void reportBulkError(RuntimeException e) {
+        if (bulkController != null) {
+            bulkController.onError(e);
+        }
+    }
+
+    private static <T> long bytesOf(List<T> documents, ToIntFunction<T> bsonSize) {
+        return documents.stream().mapToLong(bsonSize::applyAsInt).sum();
+    }
+
     private void executeBulk(BulkOperations bulkOps, int numberOfExecutions, int totalDocumentsProcessed) {
         BulkWriteResult result = bulkOps.execute();
         logger.debug("{} bulk execution(s). Documents [processed, inserted, modified, upserted] = <{}, {}, {}, {}>",
@@ -257,16 +1095,31 @@ abstract class AbstractStep implements Tasklet {
         );
     }
 
-    final MongoCollection<Document> getTempDBCollection() {
+    private MongoCollection<Document> getTempDBCollection() {
         return mongoTemplate.getCollection(getTempCollectionName());
     }
 
+    private MongoCollection<RawBsonDocument> getTempRawCollection() {
+        return mongoTemplate.getDb().getCollection(getTempCollectionName(), RawBsonDocument.class)
+                .withWriteConcern(getStagingWriteConcern());
+    }
+
+    /** With generations the live collection is the current generation, readers use the view named collectionName. */
+    private MongoCollection<Document> getLiveDBCollection() {
+        return mongoTemplate.getCollection(getLiveCollectionName());
+    }
+
+    private String getLiveCollectionName() {
+        String currentCollection = generationSwitch == null ? null : generationSwitch.currentCollection();
+        return currentCollection == null ? collectionName : currentCollection;
+    }
+
     private void deleteFile() throws IOException {
         logger.debug("Deleting file [{}]", filePath);
         FileUtils.forceDelete(new File(filePath));
     }
 
-    private void upsertCreationDetails() {
+    private void upsertCreationDetails(Collection<CreationDetails> creationDetails) {
         logger.debug("Upserting {} creation details for [{}]", creationDetails.size(), collectionName);
 
         if (!creationDetails.isEmpty()) {
@@ -302,11 +1155,27 @@ abstract class AbstractStep implements Tasklet {
                 numberOfExecution++;
                 executeBulk(bulkOps, numberOfExecution, creationDetails.size());
             }
-            creationDetails.clear();
         }
     }
 
-    protected abstract void createIndexes();
+    protected abstract List<IndexModel> getIndexModels();
     protected abstract QueryColumnBuilder getQueryColumnBuilder(String branchName);
-    protected abstract CreationDetails createCreationDetail(Document document, Date creationDate);
+    protected abstract String getCreationDetailsKey();
+
+    private static class ConvertedChunk {
+        private final List<Document> documents;
+        private final List<RawBsonDocument> rawDocuments;
+        private final Set<CreationDetails> creationDetails;
+        private long bytes;
+
+        ConvertedChunk(int size) {
+            this.documents = new ArrayList<>(size);
+            this.rawDocuments = new ArrayList<>(size);
+            this.creationDetails = new HashSet<>();
+        }
+
+        int size() {
+            return documents.size() + rawDocuments.size();
+        }
+    }
 }
@@ -0,0 +1,94 @@
+package com.netcompany.techtalk.batch.step;
+
+import org.slf4j.Logger;
+
+/**
+ * Tunes size of bulk batches and number of bulk requests in flight by additive increase, multiplicative decrease.
+ * While bulk requests are acknowledged within targetLatency, batches grow by minBytes up to maxBytes and then one
+ * more request can be in flight, up to maxInFlight. A slower acknowledgement or an error of the server halves both,
+ * down to minBytes and a single request. Every decision is logged with the throughput of the request.
+ */
+class AdaptiveBulkController {
+
+    private final String name;
+    private final long minBytes;
+    private final long maxBytes;
+    private final long targetLatencyMillis;
+    private final int maxInFlight;
+    private final BulkPacker packer;
+    private final Logger logger;
+    private ReactiveBulkWriter writer;
+    private long targetBytes;
+    private int inFlight;
+
+    AdaptiveBulkController(String name, long minBytes, long maxBytes, long targetLatencyMillis, int maxInFlight,
+                           BulkPacker packer, Logger logger) {
+        this.name = name;
+        this.minBytes = minBytes;
+        this.maxBytes = maxBytes;
+        this.targetLatencyMillis = targetLatencyMillis;
+        this.maxInFlight = maxInFlight;
+        this.packer = packer;
+        this.logger = logger;
+        this.targetBytes = Math.min(maxBytes, Math.max(minBytes, packer.getTargetBytes()));
+        this.inFlight = 1;
+        packer.setTargetBytes(targetBytes);
+    }
+
+    /** Number of bulk requests in flight of the writer is controlled as well, it starts with one. */
+    synchronized void attach(ReactiveBulkWriter writer) {
+        this.writer = writer;
+        writer.setMaxInFlight(inFlight);
+    }
+
+    synchronized long getTargetBytes() {
+        return targetBytes;
+    }
+
+    synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    synchronized void onAcknowledged(int documents, long bytes, long latencyMillis) {
+        long previousBytes = targetBytes;
+        int previousInFlight = inFlight;
+        String decision;
+        if (latencyMillis > targetLatencyMillis) {
+            decrease();
+            decision = "decreased";
+        } else if (targetBytes < maxBytes) {
+            targetBytes = Math.min(maxBytes, targetBytes + minBytes);
+            decision = "increased";
+        } else if (writer != null && inFlight < maxInFlight) {
+            inFlight++;
+            decision = "increased";
+        } else {
+            decision = "kept";
+        }
+        apply();
+        logger.debug("[{}] bulk of {} documents, {} bytes acknowledged in {} ms ({} KB/s). Limits {}: bytes {} -> {}, in flight {} -> {}.",
+                name, documents, bytes, latencyMillis, bytes / Math.max(1, latencyMillis), decision,
+                previousBytes, targetBytes, previousInFlight, inFlight);
+    }
+
+    synchronized void onError(Throwable error) {
+        long previousBytes = targetBytes;
+        int previousInFlight = inFlight;
+        decrease();
+        apply();
+        logger.warn("[{}] bulk request failed with [{}]. Limits decreased: bytes {} -> {}, in flight {} -> {}.",
+                name, error.getMessage(), previousBytes, targetBytes, previousInFlight, inFlight);
+    }
+
+    private void decrease() {
+        targetBytes = Math.max(minBytes, targetBytes / 2);
+        inFlight = Math.max(1, inFlight / 2);
+    }
+
+    private void apply() {
+        packer.setTargetBytes(targetBytes);
+        if (writer != null) {
+            writer.setMaxInFlight(inFlight);
+        }
+    }
+}
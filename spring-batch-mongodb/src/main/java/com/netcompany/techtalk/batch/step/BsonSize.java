@@ -0,0 +1,83 @@
+package com.netcompany.techtalk.batch.step;
+
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.types.Decimal128;
+import org.bson.types.ObjectId;
+
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Size of documents without encoding them. BSON size is exact for values stored by the steps (strings, numbers,
+ * dates, booleans, nulls and nested documents). Heap size is a rough estimate of a Document with its entries.
+ */
+final class BsonSize {
+
+    private static final int DOCUMENT_OVERHEAD = 5;
+    // type byte, "_id" cstring and ObjectId added by the driver to documents without _id
+    private static final int GENERATED_ID_SIZE = 1 + 4 + 12;
+    private static final int HEAP_ENTRY_OVERHEAD = 64;
+    private static final int HEAP_OBJECT_OVERHEAD = 64;
+
+    private BsonSize() {}
+
+    static int of(RawBsonDocument document) {
+        return document.getByteBuffer().remaining();
+    }
+
+    static int of(Document document) {
+        return document.containsKey("_id") ? sizeOf(document) : sizeOf(document) + GENERATED_ID_SIZE;
+    }
+
+    private static int sizeOf(Document document) {
+        int size = DOCUMENT_OVERHEAD;
+        for (Map.Entry<String, Object> entry : document.entrySet()) {
+            // type byte, field name as cstring and the value
+            size += 1 + utf8Length(entry.getKey()) + 1 + valueSize(entry.getValue());
+        }
+        return size;
+    }
+
+    static long heapOf(RawBsonDocument document) {
+        return HEAP_OBJECT_OVERHEAD + of(document);
+    }
+
+    static long heapOf(Document document) {
+        // strings take two bytes per character on the heap, each entry adds the map entry and the boxed value
+        return HEAP_OBJECT_OVERHEAD + (long) document.size() * HEAP_ENTRY_OVERHEAD + 2L * of(document);
+    }
+
+    private static int valueSize(Object value) {
+        if (value == null || value instanceof Boolean) {
+            return value == null ? 0 : 1;
+        } else if (value instanceof String) {
+            return 4 + utf8Length((String) value) + 1;
+        } else if (value instanceof Integer) {
+            return 4;
+        } else if (value instanceof Long || value instanceof Double || value instanceof Date) {
+            return 8;
+        } else if (value instanceof ObjectId) {
+            return 12;
+        } else if (value instanceof Decimal128) {
+            return 16;
+        } else if (value instanceof Document) {
+            return sizeOf((Document) value);
+        }
+        // other values are not written by the steps, 16 bytes is enough for most of them
+        return 16;
+    }
+
+    private static int utf8Length(String value) {
+        int length = value.length();
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x800) {
+                length += Character.isSurrogate(c) ? 1 : 2;
+            } else if (c >= 0x80) {
+                length++;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,72 @@
+package com.netcompany.techtalk.batch.step;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.ToIntFunction;
+
+/**
+ * Splits documents into bulk batches by their BSON size, so narrow and wide rows both make batches close to
+ * targetBytes. A batch has at most {@link #MAX_WRITE_BATCH_SIZE} documents, the limit of the server.
+ * When targetBytes is not positive, batches have batchSize documents. Batches are made while they are iterated,
+ * so a target changed by {@link AdaptiveBulkController} is used from the next batch.
+ */
+class BulkPacker {
+
+    static final int MAX_WRITE_BATCH_SIZE = 100_000;
+
+    private final int batchSize;
+    private volatile long targetBytes;
+
+    BulkPacker(int batchSize, long targetBytes) {
+        this.batchSize = batchSize;
+        this.targetBytes = targetBytes;
+    }
+
+    long getTargetBytes() {
+        return targetBytes;
+    }
+
+    void setTargetBytes(long targetBytes) {
+        this.targetBytes = targetBytes;
+    }
+
+    <T> Iterable<List<T>> pack(List<T> documents, ToIntFunction<T> bsonSize) {
+        return () -> new Iterator<List<T>>() {
+            private int from = 0;
+
+            @Override
+            public boolean hasNext() {
+                return from < documents.size();
+            }
+
+            @Override
+            public List<T> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                int to = batchEnd(documents, from, bsonSize);
+                List<T> batch = documents.subList(from, to);
+                from = to;
+                return batch;
+            }
+        };
+    }
+
+    private <T> int batchEnd(List<T> documents, int from, ToIntFunction<T> bsonSize) {
+        long target = targetBytes;
+        if (target <= 0) {
+            return Math.min(from + batchSize, documents.size());
+        }
+        long bytes = 0;
+        int to = from;
+        while (to < documents.size() && to - from < MAX_WRITE_BATCH_SIZE) {
+            bytes += bsonSize.applyAsInt(documents.get(to));
+            if (to > from && bytes > target) {
+                break;
+            }
+            to++;
+        }
+        return to;
+    }
+}
@@ -0,0 +1,211 @@
+package com.netcompany.techtalk.batch.step;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
+import com.mongodb.MongoNodeIsRecoveringException;
+import com.mongodb.MongoNotPrimaryException;
+import com.mongodb.MongoSocketException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.springframework.data.mongodb.BulkOperationException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Unordered bulk inserts of one data set. When some of the documents fail, only the ones failed with a transient error
+ * (write conflict, stepdown, shutdown or network error of the server) are sent again, after a backoff doubled with every
+ * attempt. Documents acknowledged by the server are never sent again. When the whole request fails (stepdown of the
+ * primary, recovering node or broken connection) it is not known which documents are inserted, so all of them are sent
+ * again. All documents have _id before they are sent, so the ones inserted before the failure come back as duplicate
+ * keys and are not inserted twice. Documents rejected for good are handed over with the reason of the rejection.
+ */
+class BulkRetry {
+
+    private static final int DUPLICATE_KEY_ERROR = 11000;
+    private static final Set<Integer> RETRYABLE_ERRORS = new HashSet<>(Arrays.asList(
+            6,     // HostUnreachable
+            7,     // HostNotFound
+            89,    // NetworkTimeout
+            91,    // ShutdownInProgress
+            112,   // WriteConflict
+            189,   // PrimarySteppedDown
+            262,   // ExceededTimeLimit
+            9001,  // SocketException
+            10107, // NotMaster
+            11600, // InterruptedAtShutdown
+            11602, // InterruptedDueToReplStateChange
+            13435, // NotMasterNoSlaveOk
+            13436  // NotMasterOrSecondary
+    ));
+
+    interface Insert<T> {
+        /**
+         * @exception RuntimeException caused by BulkOperationException or MongoBulkWriteException when some documents fail,
+         * or by MongoNotPrimaryException, MongoNodeIsRecoveringException, MongoSocketException or MongoCommandException when
+         * the whole request fails
+         */
+        void insert(List<T> documents);
+    }
+
+    interface Rejection<T> {
+        void reject(T document, String reason) throws Exception;
+    }
+
+    private final String dataSetName;
+    private final int maxAttempts;
+    private final long backoffMillis;
+    private final long maxBackoffMillis;
+    private final boolean loadedAgain;
+    private final Logger logger;
+    private final Counter retryCounter;
+    private final Counter retriedDocumentCounter;
+    private final Counter rejectedDocumentCounter;
+
+    /**
+     * @param maxAttempts number of times failed documents are sent again, 0 turns retries off
+     * @param loadedAgain whether documents are loaded again after a restart, so their duplicate keys are not errors
+     */
+    BulkRetry(String dataSetName, int maxAttempts, long backoffMillis, long maxBackoffMillis, boolean loadedAgain,
+              MeterRegistry meterRegistry, Logger logger) {
+        this.dataSetName = dataSetName;
+        this.maxAttempts = maxAttempts;
+        this.backoffMillis = backoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.loadedAgain = loadedAgain;
+        this.logger = logger;
+        this.retryCounter = meterRegistry.counter("mongodb.bulk.retries", "dataSet", dataSetName);
+        this.retriedDocumentCounter = meterRegistry.counter("mongodb.bulk.retries.documents", "dataSet", dataSetName);
+        this.rejectedDocumentCounter = meterRegistry.counter("mongodb.bulk.rejected", "dataSet", dataSetName);
+    }
+
+    /**
+     * @return number of rejected documents
+     * @exception Exception when documents still fail after maxAttempts retries or a rejected document can not be handed over
+     */
+    <T> int insert(List<T> documents, Insert<T> insert, Rejection<T> rejection) throws Exception {
+        List<T> pending = documents;
+        int rejected = 0;
+        boolean sentAgain = false;
+        for (int attempt = 1; ; attempt++) {
+            List<WriteFailure> failures;
+            List<T> failed = new ArrayList<>();
+            WriteFailure lastFailure = null;
+            try {
+                insert.insert(pending);
+                return rejected;
+            } catch (RuntimeException e) {
+                failures = writeFailures(e);
+                if (failures.isEmpty()) {
+                    lastFailure = requestFailure(e);
+                    if (lastFailure == null) {
+                        throw e;
+                    }
+                    failed.addAll(pending);
+                }
+            }
+
+            int duplicates = 0;
+            for (WriteFailure failure : failures) {
+                T document = pending.get(failure.index);
+                if ((loadedAgain || sentAgain) && failure.code == DUPLICATE_KEY_ERROR) {
+                    duplicates++;
+                } else if (RETRYABLE_ERRORS.contains(failure.code)) {
+                    failed.add(document);
+                    lastFailure = failure;
+                } else {
+                    rejected++;
+                    rejectedDocumentCounter.increment();
+                    rejection.reject(document, failure.reason());
+                }
+            }
+            if (duplicates > 0) {
+                logger.debug("{} document(s) of [{}] were saved before the restart or the failed request.", duplicates, dataSetName);
+            }
+            if (failed.isEmpty()) {
+                return rejected;
+            }
+            if (attempt > maxAttempts) {
+                String errMsg = String.format("%d document(s) of [%s] are not inserted after %d retries. Last error: %s",
+                        failed.size(), dataSetName, maxAttempts, lastFailure.reason());
+                logger.error(errMsg);
+                throw new Exception(errMsg);
+            }
+
+            long backoff = backoff(attempt);
+            logger.warn("{} document(s) of [{}] failed with [{}], retry {} of {} in {} ms.",
+                    failed.size(), dataSetName, lastFailure.reason(), attempt, maxAttempts, backoff);
+            retryCounter.increment();
+            retriedDocumentCounter.increment(failed.size());
+            Thread.sleep(backoff);
+            sentAgain |= failures.isEmpty();
+            pending = failed;
+        }
+    }
+
+    /**
+     * MongoTemplate translates the driver exception into a DataAccessException, the driver one is its cause.
+     * @return failed documents or empty list when it is not known which documents are inserted
+     */
+    private static List<WriteFailure> writeFailures(Throwable error) {
+        if (error instanceof BulkOperationException) {
+            return ((BulkOperationException) error).getErrors().stream()
+                    .map(writeError -> new WriteFailure(writeError.getIndex(), writeError.getCode(), writeError.getMessage()))
+                    .collect(Collectors.toList());
+        }
+        if (error instanceof MongoBulkWriteException) {
+            MongoBulkWriteException bulkWriteException = (MongoBulkWriteException) error;
+            // documents are written, but it is not known whether they are durable
+            if (bulkWriteException.getWriteConcernError() != null) {
+                return Collections.emptyList();
+            }
+            return bulkWriteException.getWriteErrors().stream()
+                    .map(writeError -> new WriteFailure(writeError.getIndex(), writeError.getCode(), writeError.getMessage()))
+                    .collect(Collectors.toList());
+        }
+        if (error.getCause() != null && error.getCause() != error) {
+            return writeFailures(error.getCause());
+        }
+        return Collections.emptyList();
+    }
+
+    /** @return failure of the whole request which can be sent again or null when it can not */
+    private static WriteFailure requestFailure(Throwable error) {
+        if (error instanceof MongoNotPrimaryException || error instanceof MongoNodeIsRecoveringException
+                || error instanceof MongoSocketException
+                || (error instanceof MongoCommandException && RETRYABLE_ERRORS.contains(((MongoCommandException) error).getErrorCode()))) {
+            return new WriteFailure(-1, ((MongoException) error).getCode(), error.getMessage());
+        }
+        if (error.getCause() != null && error.getCause() != error) {
+            return requestFailure(error.getCause());
+        }
+        return null;
+    }
+
+    private long backoff(int attempt) {
+        return Math.min(maxBackoffMillis, backoffMillis << Math.min(attempt - 1, 30));
+    }
+
+    private static class WriteFailure {
+        private final int index;
+        private final int code;
+        private final String message;
+
+        private WriteFailure(int index, int code, String message) {
+            this.index = index;
+            this.code = code;
+            this.message = message;
+        }
+
+        private String reason() {
+            return String.format("E%d %s", code, message);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.netcompany.techtalk.batch.step;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoExecutionTimeoutException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.IndexModel;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads a freshly swapped collection, so its first queries do not wait for the disk. Declared indexes are read by
+ * covered scans, which load only index pages into the server cache, then documents matching hot queries are read.
+ * All of it stops when budgetMillis is spent.
+ */
+class CacheWarmer {
+
+    private static final int BATCH_SIZE = 10000;
+
+    private final String dataSetName;
+    private final long budgetMillis;
+    private final MeterRegistry meterRegistry;
+    private final Logger logger;
+    private long deadline;
+
+    CacheWarmer(String dataSetName, long budgetMillis, MeterRegistry meterRegistry, Logger logger) {
+        this.dataSetName = dataSetName;
+        this.budgetMillis = budgetMillis;
+        this.meterRegistry = meterRegistry;
+        this.logger = logger;
+    }
+
+    void warmUp(MongoCollection<Document> collection, List<IndexModel> indexes, List<Bson> hotQueries) {
+        long start = System.currentTimeMillis();
+        deadline = start + budgetMillis;
+        List<String> builtIndexes = collection.listIndexes().map(index -> index.getString("name")).into(new ArrayList<>());
+
+        long indexEntries = 0;
+        for (IndexModel index : indexes) {
+            String indexName = index.getOptions().getName();
+            BsonDocument keys = index.getKeys().toBsonDocument(Document.class, MongoClientSettings.getDefaultCodecRegistry());
+            if (!builtIndexes.contains(indexName) || !isCoverable(keys)) {
+                logger.debug("Index [{}] of [{}] is not warmed up, it is not built yet or can not cover a query.",
+                        indexName, collection.getNamespace().getCollectionName());
+                continue;
+            }
+            indexEntries += read(collection, new Document(), keys, projection(keys));
+        }
+        long documents = 0;
+        for (Bson hotQuery : hotQueries) {
+            documents += read(collection, hotQuery, null, null);
+        }
+
+        long took = System.currentTimeMillis() - start;
+        meterRegistry.timer("mongodb.warmup", "dataSet", dataSetName).record(took, TimeUnit.MILLISECONDS);
+        logger.info("Warm-up of [{}] took {} ms{}: {} index entries of {} indexes, {} documents of {} hot queries.",
+                collection.getNamespace().getCollectionName(), took, remaining() > 0 ? "" : ", budget spent",
+                indexEntries, indexes.size(), documents, hotQueries.size());
+    }
+
+    private long read(MongoCollection<Document> collection, Bson filter, Bson hint, Bson projection) {
+        long remaining = remaining();
+        if (remaining <= 0) {
+            return 0;
+        }
+        long count = 0;
+        try (MongoCursor<Document> cursor = collection.find(filter)
+                .hint(hint)
+                .projection(projection)
+                .batchSize(BATCH_SIZE)
+                .maxTime(remaining, TimeUnit.MILLISECONDS)
+                .iterator()) {
+            while (cursor.hasNext() && remaining() > 0) {
+                cursor.next();
+                count++;
+            }
+        } catch (MongoExecutionTimeoutException e) {
+            logger.debug("Warm-up query {} of [{}] stopped by the time budget.", filter, dataSetName);
+        }
+        return count;
+    }
+
+    private long remaining() {
+        return deadline - System.currentTimeMillis();
+    }
+
+    /** Only ascending and descending keys can cover a query, e.g. not text, hashed or geo ones. */
+    private static boolean isCoverable(BsonDocument keys) {
+        return keys.values().stream().allMatch(BsonValue::isNumber);
+    }
+
+    /** Index keys without _id, so server reads only the index. */
+    private static Document projection(BsonDocument keys) {
+        Document projection = new Document();
+        for (Map.Entry<String, BsonValue> key : keys.entrySet()) {
+            projection.append(key.getKey(), 1);
+        }
+        if (!keys.containsKey("_id")) {
+            projection.append("_id", 0);
+        }
+        return projection;
+    }
+}
@@ -0,0 +1,221 @@
+package com.netcompany.techtalk.batch.step;
+
+import org.bson.BsonType;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.types.Decimal128;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
+import java.util.Date;
+
+/**
+ * BSON representation of a Foundry column type. Types are resolved once per column when the schema is read,
+ * so a value is converted by the constant of its column without looking at the schema again.
+ * Empty values of non string columns are stored as null, values which can not be parsed are kept as strings.
+ */
+enum ColumnType {
+    STRING {
+        @Override
+        Object parse(String value) {
+            return value;
+        }
+
+        @Override
+        void writeValue(BasicOutputBuffer buffer, byte[] name, String value) {
+            writeString(buffer, name, value);
+        }
+    },
+    BOOLEAN {
+        @Override
+        Object parse(String value) {
+            if ("true".equalsIgnoreCase(value)) {
+                return Boolean.TRUE;
+            } else if ("false".equalsIgnoreCase(value)) {
+                return Boolean.FALSE;
+            }
+            throw new IllegalArgumentException(value);
+        }
+
+        @Override
+        void writeValue(BasicOutputBuffer buffer, byte[] name, String value) {
+            boolean parsed = (Boolean) parse(value);
+            writeHeader(buffer, BsonType.BOOLEAN, name);
+            buffer.writeByte(parsed ? 1 : 0);
+        }
+    },
+    INTEGER {
+        @Override
+        Object parse(String value) {
+            return Integer.valueOf(value);
+        }
+
+        @Override
+        void writeValue(BasicOutputBuffer buffer, byte[] name, String value) {
+            int parsed = Integer.parseInt(value);
+            writeHeader(buffer, BsonType.INT32, name);
+            buffer.writeInt32(parsed);
+        }
+    },
+    LONG {
+        @Override
+        Object parse(String value) {
+            return Long.valueOf(value);
+        }
+
+        @Override
+        void writeValue(BasicOutputBuffer buffer, byte[] name, String value) {
+            long parsed = Long.parseLong(value);
+            writeHeader(buffer, BsonType.INT64, name);
+            buffer.writeInt64(parsed);
+        }
+    },
+    DOUBLE {
+        @Override
+        Object parse(String value) {
+            return Double.valueOf(value);
+        }
+
+        @Override
+        void writeValue(BasicOutputBuffer buffer, byte[] name, String value) {
+            double parsed = Double.parseDouble(value);
+            writeHeader(buffer, BsonType.DOUBLE, name);
+            buffer.writeDouble(parsed);
+        }
+    },
+    DECIMAL {
+        @Override
+        Object parse(String value) {
+            return new Decimal128(new BigDecimal(value));
+        }
+
+        @Override
+        void writeValue(BasicOutputBuffer buffer, byte[] name, String value) {
+            Decimal128 parsed = new Decimal128(new BigDecimal(value));
+            writeHeader(buffer, BsonType.DECIMAL128, name);
+            buffer.writeInt64(parsed.getLow());
+            buffer.writeInt64(parsed.getHigh());
+        }
+    },
+    DATE {
+        @Override
+        Object parse(String value) {
+            return new Date(epochMillis(value));
+        }
+
+        @Override
+        void writeValue(BasicOutputBuffer buffer, byte[] name, String value) {
+            writeDateTime(buffer, name, epochMillis(value));
+        }
+
+        private long epochMillis(String value) {
+            return LocalDate.parse(value).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+        }
+    },
+    TIMESTAMP {
+        @Override
+        Object parse(String value) {
+            return new Date(epochMillis(value));
+        }
+
+        @Override
+        void writeValue(BasicOutputBuffer buffer, byte[] name, String value) {
+            writeDateTime(buffer, name, epochMillis(value));
+        }
+
+        private long epochMillis(String value) {
+            TemporalAccessor parsed = TIMESTAMP_FORMAT.parse(value);
+            ZoneOffset offset = parsed.isSupported(ChronoField.OFFSET_SECONDS) ? ZoneOffset.from(parsed) : ZoneOffset.UTC;
+            return LocalDateTime.from(parsed).toInstant(offset).toEpochMilli();
+        }
+    };
+
+    /** Accepts '2019-03-13 10:39:00', '2019-03-13T10:39:00.123Z' and alike. Time without offset is UTC. */
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = new DateTimeFormatterBuilder()
+            .append(DateTimeFormatter.ISO_LOCAL_DATE)
+            .optionalStart().appendLiteral('T').optionalEnd()
+            .optionalStart().appendLiteral(' ').optionalEnd()
+            .append(DateTimeFormatter.ISO_LOCAL_TIME)
+            .optionalStart().appendOffsetId().optionalEnd()
+            .toFormatter();
+
+    abstract Object parse(String value);
+
+    /** Parses the value and writes its BSON element; nothing is written when the value can not be parsed. */
+    abstract void writeValue(BasicOutputBuffer buffer, byte[] name, String value);
+
+    final Object convert(String value) {
+        if (this == STRING) {
+            return value;
+        }
+        if (value.isEmpty()) {
+            return null;
+        }
+        try {
+            return parse(value);
+        } catch (RuntimeException e) {
+            return value;
+        }
+    }
+
+    /** The same as {@link #convert} but the value is written straight into BSON, without boxing. */
+    final void write(BasicOutputBuffer buffer, byte[] name, String value) {
+        if (this == STRING) {
+            writeString(buffer, name, value);
+            return;
+        }
+        if (value.isEmpty()) {
+            writeHeader(buffer, BsonType.NULL, name);
+            return;
+        }
+        try {
+            writeValue(buffer, name, value);
+        } catch (RuntimeException e) {
+            writeString(buffer, name, value);
+        }
+    }
+
+    static void writeHeader(BasicOutputBuffer buffer, BsonType type, byte[] name) {
+        buffer.writeByte(type.getValue());
+        buffer.writeBytes(name);
+    }
+
+    static void writeDateTime(BasicOutputBuffer buffer, byte[] name, long epochMillis) {
+        writeHeader(buffer, BsonType.DATE_TIME, name);
+        buffer.writeInt64(epochMillis);
+    }
+
+    private static void writeString(BasicOutputBuffer buffer, byte[] name, String value) {
+        writeHeader(buffer, BsonType.STRING, name);
+        buffer.writeString(value);
+    }
+
+    static ColumnType of(String foundryType) {
+        switch (String.valueOf(foundryType).toUpperCase()) {
+            case "BOOLEAN":
+                return BOOLEAN;
+            case "BYTE":
+            case "SHORT":
+            case "INTEGER":
+                return INTEGER;
+            case "LONG":
+                return LONG;
+            case "FLOAT":
+            case "DOUBLE":
+                return DOUBLE;
+            case "DECIMAL":
+                return DECIMAL;
+            case "DATE":
+                return DATE;
+            case "TIMESTAMP":
+                return TIMESTAMP;
+            default:
+                return STRING;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.netcompany.techtalk.batch.step;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+/** Reads csv from any stream with commons-csv. */
+class CommonsCsvReader implements CsvReader {
+
+    private final CSVParser parser;
+
+    CommonsCsvReader(InputStream inputStream) throws IOException {
+        this.parser = new CSVParser(new InputStreamReader(inputStream, StandardCharsets.UTF_8), CSVFormat.DEFAULT);
+    }
+
+    @Override
+    public Iterator<CsvRow> iterator() {
+        Iterator<CSVRecord> records = parser.iterator();
+        return new Iterator<CsvRow>() {
+            @Override
+            public boolean hasNext() {
+                return records.hasNext();
+            }
+
+            @Override
+            public CsvRow next() {
+                return new RecordRow(records.next());
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        parser.close();
+    }
+
+    private static class RecordRow implements CsvRow {
+        private final CSVRecord record;
+
+        RecordRow(CSVRecord record) {
+            this.record = record;
+        }
+
+        @Override
+        public int size() {
+            return record.size();
+        }
+
+        @Override
+        public String get(int index) {
+            return record.get(index);
+        }
+    }
+}
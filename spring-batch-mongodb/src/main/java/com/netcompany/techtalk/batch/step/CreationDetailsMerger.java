@@ -0,0 +1,84 @@
+package com.netcompany.techtalk.batch.step;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.netcompany.techtalk.batch.data.CreationDetails;
+import org.bson.Document;
+import org.slf4j.Logger;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Maintains {@link CreationDetails#COLLECTION_NAME} collection on the server side. Keys of a loaded collection are
+ * grouped by one aggregation which merges them into creation details, so neither memory nor number of requests
+ * depends on how many distinct keys the data set has. Requires MongoDB 4.2 ($merge stage).
+ */
+class CreationDetailsMerger {
+
+    private static final String NAME = "name";
+    private static final String VALUE = "value";
+    private static final String CREATED = "created";
+    private static final String LAST_UPDATE = "lastUpdate";
+    private static final String UNIQUE_INDEX_NAME = "name_1_value_1";
+
+    private final MongoDatabase database;
+    private final Logger logger;
+
+    CreationDetailsMerger(MongoDatabase database, Logger logger) {
+        this.database = database;
+        this.logger = logger;
+    }
+
+    /** Checks the server version and creates unique index on [name, value], which is required by $merge. */
+    boolean isSupported() {
+        try {
+            List<?> version = database.runCommand(new Document("buildInfo", 1)).get("versionArray", List.class);
+            int major = ((Number) version.get(0)).intValue();
+            int minor = ((Number) version.get(1)).intValue();
+            if (major < 4 || major == 4 && minor < 2) {
+                logger.warn("MongoDB {}.{} does not support $merge stage.", major, minor);
+                return false;
+            }
+            database.getCollection(CreationDetails.COLLECTION_NAME).createIndex(
+                    Indexes.ascending(NAME, VALUE),
+                    new IndexOptions().name(UNIQUE_INDEX_NAME).unique(true).background(true)
+            );
+            return true;
+        } catch (MongoException e) {
+            logger.warn("Creation details can not be merged on the server side.", e);
+            return false;
+        }
+    }
+
+    /**
+     * Upserts one creation detail per distinct value of the key column. New details get the earliest CREATED of
+     * their rows, all of them get lastUpdate set to the given date.
+     */
+    void merge(String sourceCollectionName, String keyColumn, String createdColumn, Date lastUpdate) {
+        logger.debug("Merging creation details of [{}] by key [{}]", sourceCollectionName, keyColumn);
+        List<Document> pipeline = Arrays.asList(
+                new Document("$group", new Document("_id", "$" + keyColumn)
+                        .append(CREATED, new Document("$min", "$" + createdColumn))),
+                new Document("$project", new Document("_id", 0)
+                        .append(NAME, new Document("$literal", keyColumn))
+                        // same value as String.valueOf(key) of the client side upserts
+                        .append(VALUE, new Document("$ifNull", Arrays.asList(new Document("$toString", "$_id"), "null")))
+                        .append(CREATED, 1)
+                        .append(LAST_UPDATE, new Document("$literal", lastUpdate))),
+                new Document("$merge", new Document("into", CreationDetails.COLLECTION_NAME)
+                        .append("on", Arrays.asList(NAME, VALUE))
+                        .append("whenMatched", Collections.singletonList(
+                                new Document("$set", new Document(LAST_UPDATE, "$$new." + LAST_UPDATE))))
+                        .append("whenNotMatched", "insert"))
+        );
+        database.runCommand(new Document("aggregate", sourceCollectionName)
+                .append("pipeline", pipeline)
+                .append("allowDiskUse", true)
+                .append("cursor", new Document()));
+    }
+}
@@ -0,0 +1,7 @@
+package com.netcompany.techtalk.batch.step;
+
+import java.io.Closeable;
+
+/** Source of csv rows. Errors while reading are thrown from the iterator as {@link IllegalStateException}. */
+interface CsvReader extends Iterable<CsvRow>, Closeable {
+}
@@ -0,0 +1,21 @@
+package com.netcompany.techtalk.batch.step;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/** One row of the csv file. Values are decoded into strings only when they are requested. */
+interface CsvRow {
+
+    int size();
+
+    String get(int index);
+
+    /** Writes UTF-8 bytes of the value into the output and returns their number. */
+    default int writeUtf8(int index, OutputStream output) throws IOException {
+        byte[] bytes = get(index).getBytes(StandardCharsets.UTF_8);
+        output.write(bytes);
+        return bytes.length;
+    }
+
+}
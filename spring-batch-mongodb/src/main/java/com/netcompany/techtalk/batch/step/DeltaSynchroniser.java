@@ -0,0 +1,183 @@
+package com.netcompany.techtalk.batch.step;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.*;
+import com.netcompany.techtalk.batch.util.CompactStringSet;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps track of natural keys of the loaded rows and, in DELTA mode, writes only inserted, changed and deleted rows
+ * into the live collection. Every row has its hash in {@link #ROW_HASH} field, so a change is detected without
+ * comparing all the columns.
+ */
+class DeltaSynchroniser {
+
+    static final String ROW_HASH = "ROW_HASH";
+    private static final String ID = "_id";
+    private static final String NATURAL_KEY_INDEX_NAME = "natural_key_unique";
+    private static final char SEPARATOR = '\u001F';
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(DeltaSynchroniser::md5);
+
+    private final List<String> naturalKey;
+    private final Logger logger;
+    private final CompactStringSet seenKeys;
+    private final AtomicLong inserted;
+    private final AtomicLong updated;
+    private final AtomicLong unchanged;
+    private final AtomicLong deleted;
+    private final AtomicLong duplicated;
+
+    DeltaSynchroniser(List<String> naturalKey, Logger logger) {
+        this.naturalKey = naturalKey;
+        this.logger = logger;
+        this.seenKeys = new CompactStringSet();
+        this.inserted = new AtomicLong();
+        this.updated = new AtomicLong();
+        this.unchanged = new AtomicLong();
+        this.deleted = new AtomicLong();
+        this.duplicated = new AtomicLong();
+    }
+
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void addRowHash(Document document, String[] headers) {
+        MessageDigest digest = DIGEST.get();
+        for (String header : headers) {
+            digest.update(String.valueOf(document.get(header)).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) SEPARATOR);
+        }
+        document.put(ROW_HASH, Base64.getEncoder().encodeToString(digest.digest()));
+    }
+
+    /** Registers natural keys of given documents and returns only those which key was not seen before in this run. */
+    List<Document> withoutDuplicates(List<Document> documents) {
+        List<Document> result = new ArrayList<>(documents.size());
+        synchronized (seenKeys) {
+            for (Document document : documents) {
+                if (seenKeys.add(keyOf(document))) {
+                    result.add(document);
+                } else if (duplicated.incrementAndGet() <= 10) {
+                    logger.warn("Natural key {} is duplicated, row is skipped.", keyOf(document));
+                }
+            }
+        }
+        return result;
+    }
+
+    void ensureNaturalKeyIndex(MongoCollection<Document> collection) {
+        IndexModel index = naturalKeyIndex();
+        logger.debug("Creating index [{}] on {}", NATURAL_KEY_INDEX_NAME, naturalKey);
+        collection.createIndex(index.getKeys(), index.getOptions());
+    }
+
+    IndexModel naturalKeyIndex() {
+        Document index = new Document();
+        naturalKey.forEach(column -> index.append(column, 1));
+        return new IndexModel(index, new IndexOptions().name(NATURAL_KEY_INDEX_NAME).unique(true).background(true));
+    }
+
+    void synchronise(MongoCollection<Document> liveCollection, List<Document> documents, int batchSize) {
+        for (int from = 0; from < documents.size(); from += batchSize) {
+            synchroniseBatch(liveCollection, documents.subList(from, Math.min(documents.size(), from + batchSize)));
+        }
+    }
+
+    private void synchroniseBatch(MongoCollection<Document> liveCollection, List<Document> documents) {
+        Map<String, Document> documentsByKey = new LinkedHashMap<>();
+        documents.forEach(document -> documentsByKey.put(keyOf(document), document));
+
+        List<WriteModel<Document>> writes = new ArrayList<>(documents.size());
+        int numberOfUpdates = 0;
+        for (Document existing : liveCollection.find(keyFilter(documents)).projection(keyProjection())) {
+            Document document = documentsByKey.remove(keyOf(existing));
+            if (document == null) {
+                continue;
+            }
+            if (Objects.equals(existing.get(ROW_HASH), document.get(ROW_HASH))) {
+                unchanged.incrementAndGet();
+            } else {
+                writes.add(new ReplaceOneModel<>(Filters.eq(ID, existing.get(ID)), document));
+                numberOfUpdates++;
+            }
+        }
+        documentsByKey.values().forEach(document -> writes.add(new InsertOneModel<>(document)));
+
+        if (!writes.isEmpty()) {
+            liveCollection.bulkWrite(writes, new BulkWriteOptions().ordered(false));
+        }
+        updated.addAndGet(numberOfUpdates);
+        inserted.addAndGet(documentsByKey.size());
+    }
+
+    void deleteUnseen(MongoCollection<Document> liveCollection, int batchSize) {
+        if (seenKeys.isEmpty()) {
+            logger.warn("No rows were loaded, nothing is deleted from [{}].", liveCollection.getNamespace());
+            return;
+        }
+        List<Object> ids = new ArrayList<>(batchSize);
+        try (MongoCursor<Document> cursor = liveCollection.find().projection(keyProjection()).batchSize(batchSize).iterator()) {
+            while (cursor.hasNext()) {
+                Document existing = cursor.next();
+                if (!seenKeys.contains(keyOf(existing))) {
+                    ids.add(existing.get(ID));
+                }
+                if (ids.size() == batchSize) {
+                    deleteByIds(liveCollection, ids);
+                }
+            }
+        }
+        if (!ids.isEmpty()) {
+            deleteByIds(liveCollection, ids);
+        }
+    }
+
+    private void deleteByIds(MongoCollection<Document> liveCollection, List<Object> ids) {
+        deleted.addAndGet(liveCollection.deleteMany(Filters.in(ID, ids)).getDeletedCount());
+        ids.clear();
+    }
+
+    void logSummary(String collectionName) {
+        logger.info("[{}] rows [inserted, updated, unchanged, deleted, duplicated] = <{}, {}, {}, {}, {}>.",
+                collectionName, inserted.get(), updated.get(), unchanged.get(), deleted.get(), duplicated.get());
+    }
+
+    private Bson keyFilter(List<Document> documents) {
+        if (naturalKey.size() == 1) {
+            String column = naturalKey.get(0);
+            return Filters.in(column, documents.stream().map(document -> document.get(column)).collect(Collectors.toList()));
+        }
+        return Filters.or(documents.stream()
+                .map(document -> Filters.and(naturalKey.stream()
+                        .map(column -> Filters.eq(column, document.get(column)))
+                        .collect(Collectors.toList())))
+                .collect(Collectors.toList()));
+    }
+
+    private Bson keyProjection() {
+        List<String> fields = new ArrayList<>(naturalKey);
+        fields.add(ROW_HASH);
+        return Projections.include(fields);
+    }
+
+    private String keyOf(Document document) {
+        return naturalKey.stream()
+                .map(column -> String.valueOf(document.get(column)))
+                .collect(Collectors.joining(String.valueOf(SEPARATOR)));
+    }
+}
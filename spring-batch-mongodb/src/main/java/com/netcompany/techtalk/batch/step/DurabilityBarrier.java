@@ -0,0 +1,56 @@
+package com.netcompany.techtalk.batch.step;
+
+import com.mongodb.WriteConcern;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOptions;
+import org.bson.Document;
+import org.slf4j.Logger;
+
+import java.util.Date;
+
+/**
+ * Staging collections are loaded with relaxed write concern, they are disposable until renamed. Before the rename
+ * and before every checkpoint one write with strict write concern is made. Journal and replication are applied in
+ * order, so when it is acknowledged all earlier writes of the load are durable too. Then number of staged documents
+ * is checked. Count from metadata can be wrong after an unclean shutdown, so it is only trusted at checkpoints when it
+ * matches; before the rename, or when it does not match, documents are counted.
+ */
+class DurabilityBarrier {
+
+    static final String COLLECTION_NAME = "stagingBarriers";
+
+    private final MongoCollection<Document> collection;
+    private final Logger logger;
+
+    DurabilityBarrier(MongoDatabase database, WriteConcern writeConcern, Logger logger) {
+        this.collection = database.getCollection(COLLECTION_NAME).withWriteConcern(writeConcern);
+        this.logger = logger;
+    }
+
+    /**
+     * @param exact whether documents are counted even when count from metadata matches
+     * @return false when staging collection has different number of documents than expected
+     */
+    boolean await(MongoCollection<?> stagingCollection, long expectedDocuments, boolean exact) {
+        String collectionName = stagingCollection.getNamespace().getCollectionName();
+        long start = System.currentTimeMillis();
+        Document barrier = new Document("_id", collectionName)
+                .append("documents", expectedDocuments)
+                .append("updated", new Date());
+        collection.replaceOne(Filters.eq("_id", collectionName), barrier, new ReplaceOptions().upsert(true));
+
+        long documents = exact ? -1 : stagingCollection.estimatedDocumentCount();
+        if (documents != expectedDocuments) {
+            documents = stagingCollection.countDocuments(new Document());
+        }
+        if (documents != expectedDocuments) {
+            logger.error("Collection [{}] has {} documents, {} were expected.", collectionName, documents, expectedDocuments);
+            return false;
+        }
+        logger.debug("{} documents of [{}] are durable with {}, barrier took {} ms.",
+                documents, collectionName, collection.getWriteConcern(), System.currentTimeMillis() - start);
+        return true;
+    }
+}
@@ -0,0 +1,107 @@
+package com.netcompany.techtalk.batch.step;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.Document;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects rows which can not be loaded and writes them in batches of batchSize, so memory used for them is bounded.
+ * Only a sample of them is meant to be logged (see {@link #isLogged}). Loading is aborted when more than maxErrorRatio
+ * of rows are wrong, checked after minRows rows. Rows can be added from many threads.
+ */
+class ErrorQuarantine {
+
+    private final String dataSetName;
+    private final int batchSize;
+    private final double maxErrorRatio;
+    private final long minRows;
+    private final int logFirst;
+    private final int logEvery;
+    private final LoadPipeline.Writer<List<Document>> writer;
+    private final Logger logger;
+    private final Counter rowCounter;
+    private final Counter errorCounter;
+    private List<Document> batch;
+    private long rows;
+    private long errors;
+
+    ErrorQuarantine(String dataSetName, int batchSize, double maxErrorRatio, long minRows, int logFirst, int logEvery,
+                    LoadPipeline.Writer<List<Document>> writer, MeterRegistry meterRegistry, Logger logger) {
+        this.dataSetName = dataSetName;
+        this.batchSize = batchSize;
+        this.maxErrorRatio = maxErrorRatio;
+        this.minRows = minRows;
+        this.logFirst = logFirst;
+        this.logEvery = logEvery;
+        this.writer = writer;
+        this.logger = logger;
+        this.rowCounter = meterRegistry.counter("csv.rows", "dataSet", dataSetName);
+        this.errorCounter = meterRegistry.counter("csv.rows.quarantined", "dataSet", dataSetName);
+        this.batch = new ArrayList<>(batchSize);
+    }
+
+    /** Counts of a load continued from a checkpoint, their rows are not read again. */
+    synchronized void resume(long rows, long errors) {
+        this.rows = rows;
+        this.errors = errors;
+    }
+
+    synchronized long getRows() {
+        return rows;
+    }
+
+    synchronized long getErrors() {
+        return errors;
+    }
+
+    synchronized void countRow() {
+        rows++;
+        rowCounter.increment();
+    }
+
+    /**
+     * @return number of the wrong row in the data set, starting from 1
+     * @exception Exception when too many rows are wrong or they could not be saved
+     */
+    synchronized long add(Document errorObject) throws Exception {
+        errors++;
+        errorCounter.increment();
+        batch.add(errorObject);
+        if (batch.size() >= batchSize) {
+            flush();
+        }
+        if (rows >= minRows && errors > maxErrorRatio * rows) {
+            String errMsg = String.format("[%s] %d of %d rows are wrong, more than allowed ratio %s. Loading is aborted.",
+                    dataSetName, errors, rows, maxErrorRatio);
+            logger.error(errMsg);
+            throw new Exception(errMsg);
+        }
+        return errors;
+    }
+
+    /** First logFirst wrong rows are logged and then every logEvery-th one. */
+    boolean isLogged(long errorNumber) {
+        return errorNumber <= logFirst || (logEvery > 0 && errorNumber % logEvery == 0);
+    }
+
+    /** Saves remaining rows and logs the summary. */
+    synchronized void finish() throws Exception {
+        flush();
+        if (errors > 0) {
+            logger.warn("[{}] {} of {} rows are wrong, they are saved in the error collection.", dataSetName, errors, rows);
+        }
+    }
+
+    /** Saves wrong rows collected so far. */
+    synchronized void flush() throws Exception {
+        if (!batch.isEmpty()) {
+            List<Document> errorObjects = batch;
+            batch = new ArrayList<>(batchSize);
+            writer.write(errorObjects);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.netcompany.techtalk.batch.step;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Drops retired generations while next data sets are loaded. The application exits right after the job, so the job
+ * waits for the drops. A generation which could not be dropped stays retired and is dropped after the next load.
+ */
+@Component
+public class GenerationDrops {
+
+    private static final Logger logger = LoggerFactory.getLogger(GenerationDrops.class);
+
+    private final ExecutorService executorService;
+    private final Map<String, Future<?>> drops;
+
+    public GenerationDrops() {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("generation-drop-");
+        threadFactory.setDaemon(true);
+        this.executorService = Executors.newSingleThreadExecutor(threadFactory);
+        this.drops = new ConcurrentHashMap<>();
+    }
+
+    void submit(String generationCollection, Runnable drop) {
+        drops.computeIfAbsent(generationCollection, collection -> executorService.submit(drop));
+    }
+
+    /** Waits until all submitted drops are finished. */
+    public void awaitDrops() throws InterruptedException {
+        for (Map.Entry<String, Future<?>> drop : drops.entrySet()) {
+            try {
+                drop.getValue().get();
+            } catch (ExecutionException e) {
+                logger.warn("Retired generation [{}] could not be dropped.", drop.getKey(), e.getCause());
+            }
+        }
+        drops.clear();
+    }
+}
@@ -0,0 +1,190 @@
+package com.netcompany.techtalk.batch.step;
+
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Every load of a data set is kept in its own collection, [collection]-gen[N]. Current generation and retired ones are
+ * recorded in an alias document, readers follow it or a view with the name of the collection, which points at the
+ * current generation. So the switch to a new generation changes only the alias and the view. Retired generations are
+ * kept for keepForMillis to roll back to and then dropped in the background.
+ */
+class GenerationSwitch {
+
+    static final String COLLECTION_NAME = "collectionGenerations";
+
+    private final MongoDatabase database;
+    private final MongoCollection<Document> aliases;
+    private final String collectionName;
+    private final long keepForMillis;
+    private final boolean view;
+    private final Logger logger;
+
+    GenerationSwitch(MongoDatabase database, String collectionName, long keepForMillis, boolean view, Logger logger) {
+        this.database = database;
+        this.aliases = database.getCollection(COLLECTION_NAME);
+        this.collectionName = collectionName;
+        this.keepForMillis = keepForMillis;
+        this.view = view;
+        this.logger = logger;
+    }
+
+    /** @return collection of the current generation or null when the collection has no generations yet */
+    String currentCollection() {
+        Document alias = findAlias();
+        return alias == null ? null : alias.getString("collection");
+    }
+
+    /** Renames loaded collection into the next generation and points readers at it. */
+    void publish(MongoCollection<Document> loadedCollection) {
+        Document alias = findAlias();
+        if (alias == null) {
+            alias = adoptLiveCollection();
+        }
+        List<Document> retired = new ArrayList<>(alias.get("retired", Collections.<Document>emptyList()));
+        retireUnrecorded(alias.getString("collection"), retired);
+        // after a rollback the newest generation is a retired one
+        int generation = retired.stream()
+                .mapToInt(retiredGeneration -> retiredGeneration.getInteger("generation"))
+                .reduce(alias.getInteger("generation"), Math::max) + 1;
+        String generationCollection = generationName(generation);
+        loadedCollection.renameCollection(new MongoNamespace(database.getName(), generationCollection));
+        pointViewAt(generationCollection);
+
+        if (alias.getString("collection") != null) {
+            retired.add(retiredGeneration(alias.getInteger("generation"), alias.getString("collection")));
+        }
+        saveAlias(generation, generationCollection, retired);
+        logger.info("[{}] points at generation {} in [{}].", collectionName, generation, generationCollection);
+    }
+
+    /** Points readers back at the latest retired generation older than the current one, the current one becomes retired. */
+    void rollback() throws Exception {
+        Document alias = findAlias();
+        List<Document> retired = alias == null ? new ArrayList<>() : new ArrayList<>(alias.get("retired", Collections.<Document>emptyList()));
+        List<String> existing = database.listCollectionNames().into(new ArrayList<>());
+        // after a rollback the generation rolled back from is retired too, it must not come back
+        int current = alias == null ? Integer.MAX_VALUE : alias.getInteger("generation");
+        Document previous = retired.stream()
+                .filter(generation -> generation.getInteger("generation") < current)
+                .filter(generation -> existing.contains(generation.getString("collection")))
+                .max(Comparator.comparing(generation -> generation.getInteger("generation")))
+                .orElse(null);
+        if (previous == null) {
+            String errMsg = String.format("[%s] has no retired generation to roll back to.", collectionName);
+            logger.error(errMsg);
+            throw new Exception(errMsg);
+        }
+        pointViewAt(previous.getString("collection"));
+
+        retired.remove(previous);
+        retired.add(retiredGeneration(alias.getInteger("generation"), alias.getString("collection")));
+        saveAlias(previous.getInteger("generation"), previous.getString("collection"), retired);
+        logger.info("[{}] rolled back from generation {} to generation {}.",
+                collectionName, alias.getInteger("generation"), previous.getInteger("generation"));
+    }
+
+    /**
+     * A generation renamed before the alias was saved, e.g. when the application died in between, is not in the alias.
+     * It is retired, so its number is not used again and it is dropped like other retired generations.
+     */
+    private void retireUnrecorded(String currentCollection, List<Document> retired) {
+        String prefix = collectionName + "-gen";
+        for (String name : database.listCollectionNames()) {
+            if (!name.startsWith(prefix) || !name.substring(prefix.length()).matches("[0-9]+")
+                    || name.equals(currentCollection)
+                    || retired.stream().anyMatch(generation -> name.equals(generation.getString("collection")))) {
+                continue;
+            }
+            logger.warn("[{}] is not recorded as a generation of [{}], it is retired.", name, collectionName);
+            retired.add(retiredGeneration(Integer.parseInt(name.substring(prefix.length())), name));
+        }
+    }
+
+    /** Drops retired generations kept longer than keepForMillis, outside of the step. */
+    void dropExpired(GenerationDrops generationDrops) {
+        Document alias = findAlias();
+        if (alias == null) {
+            return;
+        }
+        Date expiry = new Date(System.currentTimeMillis() - keepForMillis);
+        for (Document generation : alias.get("retired", Collections.<Document>emptyList())) {
+            if (generation.getDate("retiredAt").before(expiry)) {
+                generationDrops.submit(generation.getString("collection"), () -> drop(generation));
+            }
+        }
+    }
+
+    private void drop(Document generation) {
+        String generationCollection = generation.getString("collection");
+        long start = System.currentTimeMillis();
+        database.getCollection(generationCollection).drop();
+        aliases.updateOne(Filters.eq("_id", collectionName), Updates.pull("retired", generation));
+        logger.debug("Retired generation [{}] dropped in {} ms.", generationCollection, System.currentTimeMillis() - start);
+    }
+
+    /** Collection loaded before generations were used becomes generation 0. Readers miss it until the view is created. */
+    private Document adoptLiveCollection() {
+        Document info = database.listCollections().filter(Filters.eq("name", collectionName)).first();
+        if (info == null) {
+            return new Document("generation", 0);
+        }
+        if ("view".equals(info.getString("type"))) {
+            database.getCollection(collectionName).drop();
+            return new Document("generation", 0);
+        }
+        String generationCollection = generationName(0);
+        database.getCollection(collectionName).renameCollection(new MongoNamespace(database.getName(), generationCollection));
+        logger.info("[{}] is kept as generation 0 in [{}].", collectionName, generationCollection);
+        return new Document("generation", 0).append("collection", generationCollection);
+    }
+
+    private void pointViewAt(String generationCollection) {
+        if (!view) {
+            return;
+        }
+        Document info = database.listCollections().filter(Filters.eq("name", collectionName)).first();
+        if (info == null) {
+            database.createView(collectionName, generationCollection, Collections.emptyList());
+        } else {
+            database.runCommand(new Document("collMod", collectionName)
+                    .append("viewOn", generationCollection)
+                    .append("pipeline", Collections.emptyList()));
+        }
+    }
+
+    private Document findAlias() {
+        return aliases.find(Filters.eq("_id", collectionName)).first();
+    }
+
+    private void saveAlias(int generation, String generationCollection, List<Document> retired) {
+        Document alias = new Document("_id", collectionName)
+                .append("generation", generation)
+                .append("collection", generationCollection)
+                .append("published", new Date())
+                .append("retired", retired);
+        aliases.replaceOne(Filters.eq("_id", collectionName), alias, new ReplaceOptions().upsert(true));
+    }
+
+    private static Document retiredGeneration(int generation, String generationCollection) {
+        return new Document("generation", generation)
+                .append("collection", generationCollection)
+                .append("retiredAt", new Date());
+    }
+
+    private String generationName(int generation) {
+        return String.format("%s-gen%d", collectionName, generation);
+    }
+}
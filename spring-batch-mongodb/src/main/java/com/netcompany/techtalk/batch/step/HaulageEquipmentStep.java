@@ -1,16 +1,17 @@
 package com.netcompany.techtalk.batch.step;
 
-import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.IndexModel;
 import com.mongodb.client.model.IndexOptions;
-import com.netcompany.techtalk.batch.data.CreationDetails;
 import com.netcompany.techtalk.batch.web.DataClient;
 import com.netcompany.techtalk.batch.web.QueryColumnBuilder;
 import org.bson.Document;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.stereotype.Component;
 
-import java.util.Date;
+import java.util.Collections;
+import java.util.List;
 
 /** Created by Pawel Gawedzki on 16-Mar-18.*/
 @Component
@@ -21,17 +22,15 @@ public class HaulageEquipmentStep extends AbstractStep {
     private static final String DATA_SET_RID = "ri.foundry.main.dataset.7fe2b4bc-c60f-4e05-9b36-8f7cd602d5ab";
 
     @Autowired
-    public HaulageEquipmentStep(MongoTemplate mongoTemplate, DataClient dataClient) {
+    public HaulageEquipmentStep(@Qualifier("dataMongoTemplate") MongoTemplate mongoTemplate, DataClient dataClient) {
         super(dataClient, mongoTemplate, DATA_SET_NAME, COLLECTION_NAME, DATA_SET_RID);
     }
 
     @Override
-    protected void createIndexes() {
-        MongoCollection<Document> tempDBCollection = getTempDBCollection();
-
-        String indexName = "HAULAGE_ARRANGEMENT_INSTANCE_ID";
-        Document index = new Document("HAULAGE_ARRANGEMENT_INSTANCE_ID", 1);
-        tempDBCollection.createIndex(index, new IndexOptions().name(indexName).background(true).unique(true));
+    protected List<IndexModel> getIndexModels() {
+        return Collections.singletonList(
+                new IndexModel(new Document("HAULAGE_ARRANGEMENT_INSTANCE_ID", 1), new IndexOptions().name("HAULAGE_ARRANGEMENT_INSTANCE_ID").background(true).unique(true))
+        );
     }
 
     @Override
@@ -40,7 +39,7 @@ public class HaulageEquipmentStep extends AbstractStep {
     }
 
     @Override
-    protected CreationDetails createCreationDetail(Document document, Date creationDate) {
-        return new CreationDetails("HAULAGE_ARRANGEMENT_INSTANCE_ID", String.valueOf(document.get("HAULAGE_ARRANGEMENT_INSTANCE_ID")), creationDate);
+    protected String getCreationDetailsKey() {
+        return "HAULAGE_ARRANGEMENT_INSTANCE_ID";
     }
 }
@@ -0,0 +1,89 @@
+package com.netcompany.techtalk.batch.step;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.IndexModel;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+/**
+ * Builds indexes of data set collections. All indexes of a collection are sent in one createIndexes command,
+ * so the server builds them during a single scan of the collection.
+ */
+@Component
+public class IndexBuilder {
+
+    /**
+     * BEFORE_LOAD - indexes are created on the empty temporary collection and maintained while rows are inserted.
+     * AFTER_LOAD - indexes are built on the loaded temporary collection before it replaces the live one.
+     * DEFERRED - live collection is replaced first and its indexes are built while next data sets are loaded.
+     */
+    enum Strategy {BEFORE_LOAD, AFTER_LOAD, DEFERRED}
+
+    private static final Logger logger = LoggerFactory.getLogger(IndexBuilder.class);
+
+    private final ExecutorService executorService;
+    private final Map<String, Future<?>> deferredBuilds;
+
+    @Autowired
+    public IndexBuilder(@Value("${index.deferred.threads:2}") int threads) {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("index-");
+        threadFactory.setDaemon(true);
+        this.executorService = Executors.newFixedThreadPool(threads, threadFactory);
+        this.deferredBuilds = new ConcurrentHashMap<>();
+    }
+
+    void build(MongoCollection<Document> collection, List<IndexModel> indexes, Strategy strategy) {
+        if (indexes.isEmpty()) {
+            return;
+        }
+        String collectionName = collection.getNamespace().getCollectionName();
+        List<String> indexNames = indexes.stream().map(index -> index.getOptions().getName()).collect(Collectors.toList());
+        logger.debug("Creating indexes {} on [{}]", indexNames, collectionName);
+
+        long start = System.currentTimeMillis();
+        collection.createIndexes(indexes);
+        logger.info("Indexes {} of [{}] built {} in {} ms.", indexNames, collectionName, strategy, System.currentTimeMillis() - start);
+    }
+
+    void buildDeferred(MongoCollection<Document> collection, List<IndexModel> indexes) {
+        deferredBuilds.put(
+                collection.getNamespace().getCollectionName(),
+                executorService.submit(() -> build(collection, indexes, Strategy.DEFERRED))
+        );
+    }
+
+    /**
+     * Waits until all deferred index builds are finished.
+     * @exception Exception when indexes of any collection could not be built
+     */
+    public void awaitDeferredBuilds() throws Exception {
+        List<String> failedCollections = new ArrayList<>();
+        for (Map.Entry<String, Future<?>> build : deferredBuilds.entrySet()) {
+            try {
+                build.getValue().get();
+            } catch (ExecutionException e) {
+                logger.error("Indexes of [{}] could not be built.", build.getKey(), e.getCause());
+                failedCollections.add(build.getKey());
+            }
+        }
+        deferredBuilds.clear();
+        if (!failedCollections.isEmpty()) {
+            throw new Exception(String.format("Deferred indexes of %s could not be built.", failedCollections));
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.netcompany.techtalk.batch.step;
+
+import com.netcompany.techtalk.batch.mongoDao.MongoExecutionContextDao;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.item.ExecutionContext;
+
+/**
+ * Progress of a restartable load, kept in the step ExecutionContext and saved after every chunk written into the
+ * temporary collection. When the last execution of the step failed while loading the same version of the data set,
+ * the next one continues from its last checkpoint.
+ */
+class LoadCheckpoint {
+
+    private static final String COLLECTION = "checkpoint.collection";
+    private static final String ROWS = "checkpoint.rows";
+    private static final String CHUNK = "checkpoint.chunk";
+    private static final String DOCUMENTS = "checkpoint.documents";
+    private static final String ERRORS = "checkpoint.errors";
+
+    private final StepExecution stepExecution;
+    private final MongoExecutionContextDao executionContextDao;
+    private final boolean resumed;
+
+    private LoadCheckpoint(StepExecution stepExecution, MongoExecutionContextDao executionContextDao, boolean resumed) {
+        this.stepExecution = stepExecution;
+        this.executionContextDao = executionContextDao;
+        this.resumed = resumed;
+    }
+
+    /**
+     * @param versionKey key of the data set version in the ExecutionContext, checkpoint of other version is not used
+     * @param staged     whether staged file and temporary collection of the failed execution still exist
+     */
+    static LoadCheckpoint start(StepExecution stepExecution, MongoExecutionContextDao executionContextDao,
+                                String tempCollectionName, String versionKey, boolean staged) {
+        ExecutionContext failedContext = executionContextDao.getLastFailedStepContext(stepExecution);
+        ExecutionContext context = stepExecution.getExecutionContext();
+        boolean resumed = staged
+                && tempCollectionName.equals(failedContext.getString(COLLECTION, null))
+                && failedContext.getString(versionKey, "").equals(context.getString(versionKey, null));
+        if (resumed) {
+            for (String key : new String[]{ROWS, CHUNK, DOCUMENTS, ERRORS}) {
+                context.put(key, failedContext.get(key));
+            }
+        } else {
+            context.putLong(ROWS, 0);
+            context.putInt(CHUNK, 0);
+            context.putLong(DOCUMENTS, 0);
+            context.putLong(ERRORS, 0);
+        }
+        context.putString(COLLECTION, tempCollectionName);
+        return new LoadCheckpoint(stepExecution, executionContextDao, resumed);
+    }
+
+    boolean isResumed() {
+        return resumed;
+    }
+
+    /** Rows of the staged file which are already loaded, wrong ones included. */
+    long getRows() {
+        return ((Number) stepExecution.getExecutionContext().get(ROWS)).longValue();
+    }
+
+    int getChunk() {
+        return ((Number) stepExecution.getExecutionContext().get(CHUNK)).intValue();
+    }
+
+    long getDocuments() {
+        return ((Number) stepExecution.getExecutionContext().get(DOCUMENTS)).longValue();
+    }
+
+    long getErrors() {
+        return ((Number) stepExecution.getExecutionContext().get(ERRORS)).longValue();
+    }
+
+    void save(long rows, int chunk, long documents, long errors) {
+        ExecutionContext context = stepExecution.getExecutionContext();
+        context.putLong(ROWS, rows);
+        context.putInt(CHUNK, chunk);
+        context.putLong(DOCUMENTS, documents);
+        context.putLong(ERRORS, errors);
+        executionContextDao.updateExecutionContext(stepExecution);
+    }
+
+    /** Staged documents can not be trusted, the next execution drops the temporary collection and starts over. */
+    void invalidate() {
+        stepExecution.getExecutionContext().remove(COLLECTION);
+        executionContextDao.updateExecutionContext(stepExecution);
+    }
+}
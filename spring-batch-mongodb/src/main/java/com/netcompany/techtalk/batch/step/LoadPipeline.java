@@ -0,0 +1,152 @@
+package com.netcompany.techtalk.batch.step;
+
+import org.slf4j.Logger;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Loads rows in three stages: reading (caller thread), converting (pool of converters) and writing (pool of writers).
+ * Stages are joined by bounded queues, so the reader waits when converters or writers fall behind and
+ * at most (2 * queueCapacity + converters + writers) chunks are kept in memory.
+ */
+class LoadPipeline<R, C> {
+
+    interface Converter<R, C> {
+        C convert(List<R> rows) throws Exception;
+    }
+
+    interface Writer<C> {
+        void write(C chunk) throws Exception;
+    }
+
+    private static final Object END = new Object();
+    private static final long POLL_INTERVAL_MS = 1000;
+
+    private final String name;
+    private final int converters;
+    private final int writers;
+    private final Logger logger;
+    private final BlockingQueue<Object> convertQueue;
+    private final BlockingQueue<Object> writeQueue;
+    private final AtomicReference<Throwable> failure;
+
+    LoadPipeline(String name, int converters, int writers, int queueCapacity, Logger logger) {
+        this.name = name;
+        this.converters = Math.max(1, converters);
+        this.writers = Math.max(1, writers);
+        this.logger = logger;
+        this.convertQueue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.writeQueue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.failure = new AtomicReference<>();
+    }
+
+    void run(Iterator<R> rows, int rowsPerChunk, Converter<R, C> converter, Writer<C> writer) throws Exception {
+        logger.debug("Starting [{}] pipeline with [converters, writers, queueCapacity] = <{}, {}, {}>.",
+                name, converters, writers, convertQueue.remainingCapacity());
+
+        ExecutorService converterPool = Executors.newFixedThreadPool(converters, new CustomizableThreadFactory(name + "-convert-"));
+        ExecutorService writerPool = Executors.newFixedThreadPool(writers, new CustomizableThreadFactory(name + "-write-"));
+        AtomicInteger runningConverters = new AtomicInteger(converters);
+        try {
+            for (int i = 0; i < converters; i++) {
+                converterPool.execute(() -> convert(converter, runningConverters));
+            }
+            for (int i = 0; i < writers; i++) {
+                writerPool.execute(() -> write(writer));
+            }
+
+            List<R> chunk = new ArrayList<>(rowsPerChunk);
+            while (rows.hasNext()) {
+                chunk.add(rows.next());
+                if (chunk.size() == rowsPerChunk) {
+                    enqueue(convertQueue, chunk);
+                    chunk = new ArrayList<>(rowsPerChunk);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                enqueue(convertQueue, chunk);
+            }
+            for (int i = 0; i < converters; i++) {
+                enqueue(convertQueue, END);
+            }
+
+            converterPool.shutdown();
+            writerPool.shutdown();
+            while (!writerPool.awaitTermination(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+                checkFailure();
+                logQueueDepth("Waiting for writers.");
+            }
+            checkFailure();
+        } catch (Exception | Error e) {
+            failure.compareAndSet(null, e);
+            throw e;
+        } finally {
+            converterPool.shutdownNow();
+            writerPool.shutdownNow();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void convert(Converter<R, C> converter, AtomicInteger runningConverters) {
+        try {
+            Object element;
+            while ((element = convertQueue.take()) != END) {
+                enqueue(writeQueue, converter.convert((List<R>) element));
+            }
+        } catch (Throwable t) {
+            fail(t);
+        } finally {
+            if (runningConverters.decrementAndGet() == 0) {
+                try {
+                    for (int i = 0; i < writers; i++) {
+                        enqueue(writeQueue, END);
+                    }
+                } catch (Throwable t) {
+                    fail(t);
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void write(Writer<C> writer) {
+        try {
+            Object element;
+            while ((element = writeQueue.take()) != END) {
+                writer.write((C) element);
+                logQueueDepth("Chunk saved.");
+            }
+        } catch (Throwable t) {
+            fail(t);
+        }
+    }
+
+    private void enqueue(BlockingQueue<Object> queue, Object element) throws Exception {
+        while (!queue.offer(element, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+            checkFailure();
+        }
+    }
+
+    private void fail(Throwable t) {
+        if (failure.compareAndSet(null, t)) {
+            logger.error("[{}] pipeline failed.", name, t);
+        }
+    }
+
+    private void checkFailure() throws Exception {
+        Throwable t = failure.get();
+        if (t != null) {
+            throw new Exception(String.format("[%s] pipeline failed.", name), t);
+        }
+    }
+
+    private void logQueueDepth(String message) {
+        logger.debug("{} [{}] queue depth [convert, write] = <{}, {}>.", message, name, convertQueue.size(), writeQueue.size());
+    }
+}
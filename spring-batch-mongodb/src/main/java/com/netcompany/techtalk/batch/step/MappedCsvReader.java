@@ -0,0 +1,277 @@
+package com.netcompany.techtalk.batch.step;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads staged csv file through memory mapped windows and tokenizes RFC 4180 rows directly on UTF-8 bytes.
+ * Rows keep only positions of their fields in the mapped window, strings are built when a field is requested.
+ * It follows {@link org.apache.commons.csv.CSVFormat#DEFAULT} rules, so it returns the same rows as {@link CommonsCsvReader}:
+ * empty lines are skipped, "" inside quoted field is a quote and whitespace after closing quote is ignored.
+ */
+class MappedCsvReader implements CsvReader {
+
+    private static final long DEFAULT_WINDOW_SIZE = 256L * 1024 * 1024;
+    private static final byte QUOTE = '"';
+    private static final byte DELIMITER = ',';
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+    private static final MappedRow NEEDS_MORE = new MappedRow(null, new int[0], null);
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final long windowSize;
+    private ByteBuffer window;
+    private long windowStart;
+    private long position;
+    private long rowNumber;
+    private int[] bounds;
+    private boolean[] escaped;
+
+    MappedCsvReader(Path path) throws IOException {
+        this(path, DEFAULT_WINDOW_SIZE);
+    }
+
+    MappedCsvReader(Path path, long windowSize) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.fileSize = channel.size();
+        this.windowSize = windowSize;
+        this.bounds = new int[64];
+        this.escaped = new boolean[32];
+        map(0);
+    }
+
+    private void map(long start) throws IOException {
+        windowStart = start;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(windowSize, fileSize - start));
+    }
+
+    /** @return byte offset in the file where the next row starts */
+    long getPosition() {
+        return position;
+    }
+
+    @Override
+    public Iterator<CsvRow> iterator() {
+        return new Iterator<CsvRow>() {
+            private CsvRow next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    next = read();
+                }
+                return next != null;
+            }
+
+            @Override
+            public CsvRow next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                CsvRow row = next;
+                next = null;
+                return row;
+            }
+        };
+    }
+
+    private CsvRow read() {
+        try {
+            while (true) {
+                MappedRow row = tokenize((int) (position - windowStart));
+                if (row != NEEDS_MORE) {
+                    return row;
+                }
+                if (position == windowStart) {
+                    throw new IOException(String.format("Row %d is bigger than %d bytes.", rowNumber + 1, windowSize));
+                }
+                // row crosses the end of the window, so the window is moved to start where the row starts
+                map(position);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("IOException reading next record: " + e.toString(), e);
+        }
+    }
+
+    /** @return next row, null at the end of the file or NEEDS_MORE when the row does not end in the current window */
+    private MappedRow tokenize(int p) throws IOException {
+        ByteBuffer buffer = window;
+        int limit = buffer.limit();
+        boolean endOfFile = windowStart + limit == fileSize;
+
+        while (p < limit && isEndOfLine(buffer.get(p))) {
+            p++;
+        }
+        if (p == limit) {
+            if (endOfFile) {
+                position = windowStart + p;
+                return null;
+            }
+            return NEEDS_MORE;
+        }
+
+        int fields = 0;
+        boolean anyEscaped = false;
+        while (true) {
+            ensureCapacity(fields + 1);
+            int start;
+            int end;
+            boolean escapedField = false;
+            if (p < limit && buffer.get(p) == QUOTE) {
+                start = ++p;
+                while (true) {
+                    if (p == limit) {
+                        if (endOfFile) {
+                            throw new IOException(String.format("(row %d) EOF reached before encapsulated token finished", rowNumber + 1));
+                        }
+                        return NEEDS_MORE;
+                    }
+                    if (buffer.get(p) == QUOTE) {
+                        if (p + 1 == limit && !endOfFile) {
+                            return NEEDS_MORE;
+                        }
+                        if (p + 1 < limit && buffer.get(p + 1) == QUOTE) {
+                            escapedField = true;
+                            p += 2;
+                            continue;
+                        }
+                        end = p++;
+                        break;
+                    }
+                    p++;
+                }
+                while (p < limit && isWhitespace(buffer.get(p))) {
+                    p++;
+                }
+                if (p == limit && !endOfFile) {
+                    return NEEDS_MORE;
+                }
+                if (p < limit && buffer.get(p) != DELIMITER && !isEndOfLine(buffer.get(p))) {
+                    throw new IOException(String.format("(row %d) invalid char between encapsulated token and delimiter", rowNumber + 1));
+                }
+            } else {
+                start = p;
+                while (p < limit && buffer.get(p) != DELIMITER && !isEndOfLine(buffer.get(p))) {
+                    p++;
+                }
+                if (p == limit && !endOfFile) {
+                    return NEEDS_MORE;
+                }
+                end = p;
+            }
+            bounds[2 * fields] = start;
+            bounds[2 * fields + 1] = end;
+            escaped[fields] = escapedField;
+            anyEscaped |= escapedField;
+            fields++;
+
+            if (p == limit) {
+                break;
+            }
+            byte separator = buffer.get(p++);
+            if (separator == DELIMITER) {
+                continue;
+            }
+            if (separator == CR) {
+                if (p == limit && !endOfFile) {
+                    return NEEDS_MORE;
+                }
+                if (p < limit && buffer.get(p) == LF) {
+                    p++;
+                }
+            }
+            break;
+        }
+
+        position = windowStart + p;
+        rowNumber++;
+        return new MappedRow(buffer, Arrays.copyOf(bounds, 2 * fields), anyEscaped ? Arrays.copyOf(escaped, fields) : null);
+    }
+
+    private void ensureCapacity(int fields) {
+        if (escaped.length < fields) {
+            escaped = Arrays.copyOf(escaped, fields * 2);
+            bounds = Arrays.copyOf(bounds, fields * 4);
+        }
+    }
+
+    private static boolean isEndOfLine(byte b) {
+        return b == CR || b == LF;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b >= 0 && b != DELIMITER && !isEndOfLine(b) && Character.isWhitespace((char) b);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static final class MappedRow implements CsvRow {
+        private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[1024]);
+
+        private final ByteBuffer buffer;
+        private final int[] bounds;
+        private final boolean[] escaped;
+
+        MappedRow(ByteBuffer buffer, int[] bounds, boolean[] escaped) {
+            this.buffer = buffer;
+            this.bounds = bounds;
+            this.escaped = escaped;
+        }
+
+        @Override
+        public int size() {
+            return bounds.length / 2;
+        }
+
+        @Override
+        public String get(int index) {
+            byte[] bytes = new byte[bounds[2 * index + 1] - bounds[2 * index]];
+            return new String(bytes, 0, copy(index, bytes), StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public int writeUtf8(int index, OutputStream output) throws IOException {
+            int maxLength = bounds[2 * index + 1] - bounds[2 * index];
+            byte[] bytes = SCRATCH.get();
+            if (bytes.length < maxLength) {
+                bytes = new byte[Math.max(maxLength, 2 * bytes.length)];
+                SCRATCH.set(bytes);
+            }
+            int length = copy(index, bytes);
+            output.write(bytes, 0, length);
+            return length;
+        }
+
+        /** Copies the value into the target and unescapes doubled quotes in place. Returns length of the value. */
+        private int copy(int index, byte[] target) {
+            int start = bounds[2 * index];
+            int rawLength = bounds[2 * index + 1] - start;
+            ByteBuffer view = buffer.duplicate();
+            view.position(start);
+            view.get(target, 0, rawLength);
+            if (escaped == null || !escaped[index]) {
+                return rawLength;
+            }
+            int length = 0;
+            for (int i = 0; i < rawLength; i++) {
+                target[length++] = target[i];
+                if (target[i] == QUOTE) {
+                    i++;
+                }
+            }
+            return length;
+        }
+    }
+}
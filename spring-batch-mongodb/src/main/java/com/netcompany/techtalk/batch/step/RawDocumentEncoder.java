@@ -0,0 +1,78 @@
+package com.netcompany.techtalk.batch.step;
+
+import org.bson.BsonType;
+import org.bson.RawBsonDocument;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.types.ObjectId;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes csv rows straight into BSON. Names of the fields are encoded once per data set and values are copied from
+ * the row into a buffer reused by the thread, so a row costs a single byte array instead of a Document with its
+ * entries and strings. Values of typed columns are parsed by the ColumnType of their column and written natively.
+ * Documents are passed to the driver as they are, without Spring's MongoConverter, which does not add _id to them, so
+ * ObjectId is generated here. A document sent again after a failed request keeps its _id.
+ */
+class RawDocumentEncoder {
+
+    private static final byte[] ID_FIELD_NAME = cString("_id");
+
+    private final byte[][] fieldNames;
+    private final ColumnType[] columnTypes;
+    private final byte[] createdFieldName;
+    private final ThreadLocal<BasicOutputBuffer> buffers = ThreadLocal.withInitial(BasicOutputBuffer::new);
+
+    RawDocumentEncoder(String[] headers, ColumnType[] columnTypes, String createdFieldName) {
+        this.columnTypes = columnTypes;
+        this.fieldNames = new byte[headers.length][];
+        for (int i = 0; i < headers.length; i++) {
+            this.fieldNames[i] = cString(headers[i]);
+        }
+        this.createdFieldName = cString(createdFieldName);
+    }
+
+    RawBsonDocument encode(CsvRow row, long created) throws IOException {
+        return encode(row, created, null);
+    }
+
+    /** @param id _id of the document or null when ObjectId is generated */
+    RawBsonDocument encode(CsvRow row, long created, Long id) throws IOException {
+        BasicOutputBuffer buffer = buffers.get();
+        buffer.truncateToPosition(0);
+        buffer.writeInt32(0);
+        if (id != null) {
+            ColumnType.writeHeader(buffer, BsonType.INT64, ID_FIELD_NAME);
+            buffer.writeInt64(id);
+        } else {
+            ColumnType.writeHeader(buffer, BsonType.OBJECT_ID, ID_FIELD_NAME);
+            buffer.writeBytes(new ObjectId().toByteArray());
+        }
+        for (int i = 0; i < fieldNames.length; i++) {
+            // string values are copied from the row without creating a String
+            if (columnTypes[i] == ColumnType.STRING) {
+                buffer.writeByte(BsonType.STRING.getValue());
+                buffer.writeBytes(fieldNames[i]);
+                int lengthPosition = buffer.getPosition();
+                buffer.writeInt32(0);
+                int length = row.writeUtf8(i, buffer);
+                buffer.writeByte(0);
+                buffer.writeInt32(lengthPosition, length + 1);
+            } else {
+                columnTypes[i].write(buffer, fieldNames[i], row.get(i));
+            }
+        }
+        ColumnType.writeDateTime(buffer, createdFieldName, created);
+        buffer.writeByte(0);
+        buffer.writeInt32(0, buffer.getPosition());
+        return new RawBsonDocument(buffer.toByteArray());
+    }
+
+    private static byte[] cString(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        byte[] cString = new byte[bytes.length + 1];
+        System.arraycopy(bytes, 0, cString, 0, bytes.length);
+        return cString;
+    }
+}
@@ -0,0 +1,139 @@
+package com.netcompany.techtalk.batch.step;
+
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.reactivestreams.client.MongoDatabase;
+import com.mongodb.reactivestreams.client.Success;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Inserts documents through the Reactive Streams driver and keeps up to maxInFlight bulk requests waiting for
+ * acknowledgement. Caller is blocked when all of them are in flight, so reading of csv is paced by the server
+ * instead of by the round trip of a single bulk request. When a controller is given, it is told about every
+ * acknowledgement and it can change maxInFlight.
+ */
+class ReactiveBulkWriter {
+
+    private final String name;
+    private final MongoDatabase database;
+    private final AdaptiveBulkController controller;
+    private final Logger logger;
+    private final AdjustableSemaphore permits;
+    private final AtomicReference<Throwable> failure;
+    private final AtomicInteger inFlight;
+    private final AtomicInteger peakInFlight;
+    private final AtomicLong acknowledged;
+    private int maxInFlight;
+    private boolean awaiting;
+
+    ReactiveBulkWriter(String name, MongoDatabase database, int maxInFlight, AdaptiveBulkController controller, Logger logger) {
+        this.name = name;
+        this.database = database;
+        this.maxInFlight = maxInFlight;
+        this.controller = controller;
+        this.logger = logger;
+        this.permits = new AdjustableSemaphore(maxInFlight);
+        this.failure = new AtomicReference<>();
+        this.inFlight = new AtomicInteger();
+        this.peakInFlight = new AtomicInteger();
+        this.acknowledged = new AtomicLong();
+    }
+
+    /** Sends documents as one unordered bulk request. Documents can not be modified until it is acknowledged. */
+    <T> void insert(String collectionName, Class<T> documentClass, List<T> documents, long bytes) throws Exception {
+        throwIfFailed();
+        permits.acquire();
+        int requests = inFlight.incrementAndGet();
+        peakInFlight.accumulateAndGet(requests, Math::max);
+        logger.debug("[{}] {} bulk request(s) in flight.", name, requests);
+
+        long start = System.nanoTime();
+        database.getCollection(collectionName, documentClass)
+                .insertMany(documents, new InsertManyOptions().ordered(false))
+                .subscribe(new Subscriber<Success>() {
+                    @Override
+                    public void onSubscribe(Subscription subscription) {
+                        subscription.request(1);
+                    }
+
+                    @Override
+                    public void onNext(Success success) {}
+
+                    @Override
+                    public void onError(Throwable throwable) {
+                        failure.compareAndSet(null, throwable);
+                        inFlight.decrementAndGet();
+                        permits.release();
+                        if (controller != null) {
+                            controller.onError(throwable);
+                        }
+                    }
+
+                    @Override
+                    public void onComplete() {
+                        acknowledged.addAndGet(documents.size());
+                        inFlight.decrementAndGet();
+                        permits.release();
+                        if (controller != null) {
+                            controller.onAcknowledged(documents.size(), bytes, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                        }
+                    }
+                });
+    }
+
+    /** Changes how many bulk requests can wait for acknowledgement, requests already in flight are not affected. */
+    synchronized void setMaxInFlight(int newMaxInFlight) {
+        if (awaiting || newMaxInFlight == maxInFlight) {
+            return;
+        }
+        if (newMaxInFlight > maxInFlight) {
+            permits.release(newMaxInFlight - maxInFlight);
+        } else {
+            permits.reducePermits(maxInFlight - newMaxInFlight);
+        }
+        maxInFlight = newMaxInFlight;
+    }
+
+    /** Waits until all bulk requests are acknowledged. */
+    void awaitAll() throws Exception {
+        int permitsToAwait;
+        synchronized (this) {
+            // limit can not change any more, so all of its permits are released once nothing is in flight
+            awaiting = true;
+            permitsToAwait = maxInFlight;
+        }
+        permits.acquire(permitsToAwait);
+        permits.release(permitsToAwait);
+        throwIfFailed();
+        logger.debug("[{}] {} documents acknowledged, at most {} bulk request(s) were in flight.",
+                name, acknowledged.get(), peakInFlight.get());
+    }
+
+    private void throwIfFailed() throws Exception {
+        Throwable throwable = failure.get();
+        if (throwable != null) {
+            throw new Exception(String.format("[%s] bulk insert failed.", name), throwable);
+        }
+    }
+
+    private static class AdjustableSemaphore extends Semaphore {
+        private static final long serialVersionUID = 1L;
+
+        AdjustableSemaphore(int permits) {
+            super(permits);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+}
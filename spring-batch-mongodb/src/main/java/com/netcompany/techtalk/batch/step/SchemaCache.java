@@ -0,0 +1,73 @@
+package com.netcompany.techtalk.batch.step;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOptions;
+import com.netcompany.techtalk.batch.mapper.ColumnMapper;
+import org.bson.Document;
+import org.codehaus.jettison.json.JSONException;
+import org.slf4j.Logger;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Date;
+
+/**
+ * Keeps schema json of data sets between runs, keyed by data set RID and branch. Csv directory is deleted after
+ * every run, so schemas are kept in Mongo. SHA-256 of the columns tells whether a schema requested again has changed;
+ * the json has sample rows of the data set too, so it changes with every load.
+ */
+class SchemaCache {
+
+    static final String COLLECTION_NAME = "schemaCache";
+
+    private final MongoCollection<Document> collection;
+    private final Logger logger;
+
+    SchemaCache(MongoDatabase database, Logger logger) {
+        this.collection = database.getCollection(COLLECTION_NAME);
+        this.logger = logger;
+    }
+
+    /** @return cached schema json or null when the data set was not cached yet */
+    String find(String dataSetRid, String branchName) {
+        Document cached = collection.find(Filters.eq("_id", key(dataSetRid, branchName))).first();
+        if (cached == null) {
+            return null;
+        }
+        logger.debug("Schema of [{}] cached at {} is used.", key(dataSetRid, branchName), cached.getDate("updated"));
+        return cached.getString("schema");
+    }
+
+    boolean isCurrent(String dataSetRid, String branchName, String schemaJson) throws JSONException {
+        Document cached = collection.find(Filters.eq("_id", key(dataSetRid, branchName))).first();
+        return cached != null && hash(schemaJson).equals(cached.getString("columnsHash"));
+    }
+
+    void store(String dataSetRid, String branchName, String schemaJson) throws JSONException {
+        Document cached = new Document("_id", key(dataSetRid, branchName))
+                .append("schema", schemaJson)
+                .append("columnsHash", hash(schemaJson))
+                .append("updated", new Date());
+        collection.replaceOne(Filters.eq("_id", cached.get("_id")), cached, new ReplaceOptions().upsert(true));
+        logger.debug("Schema of [{}] is cached.", cached.get("_id"));
+    }
+
+    private static String key(String dataSetRid, String branchName) {
+        return dataSetRid + "/" + branchName;
+    }
+
+    /** Columns are in the order of the schema, so the same columns in other order have other hash. */
+    private static String hash(String schemaJson) throws JSONException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            String columns = ColumnMapper.map(schemaJson).toString();
+            return Base64.getEncoder().encodeToString(digest.digest(columns.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
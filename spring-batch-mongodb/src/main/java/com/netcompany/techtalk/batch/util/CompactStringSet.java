@@ -0,0 +1,155 @@
+package com.netcompany.techtalk.batch.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Set of strings kept as UTF-8 bytes in large pages, with a 64-bit hash of every string in an open addressing table.
+ * Takes around 36 bytes per element plus the bytes of the string instead of around 120 bytes taken by HashSet&lt;String&gt;,
+ * so it can keep tens of millions of natural keys. Strings with the same hash are told apart by their bytes.
+ * Not thread safe.
+ */
+public class CompactStringSet {
+
+    private static final long EMPTY = 0L;
+    private static final float LOAD_FACTOR = 0.5f;
+    private static final int PAGE_SIZE = 1 << 20;
+    private static final int LENGTH_BYTES = 4;
+
+    private final List<byte[]> pages;
+    private long[] hashes;
+    /** page index in the high int, position in the page in the low int */
+    private long[] locations;
+    private int pagePosition;
+    private int size;
+
+    public CompactStringSet() {
+        this(1024);
+    }
+
+    public CompactStringSet(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        this.hashes = new long[capacity];
+        this.locations = new long[capacity];
+        this.pages = new ArrayList<>();
+        this.pagePosition = PAGE_SIZE;
+    }
+
+    /** @return true when value was added, false when it was already in the set */
+    public boolean add(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        long hash = nonEmptyHash(bytes);
+        int index = indexOf(hash, bytes);
+        if (hashes[index] != EMPTY) {
+            return false;
+        }
+        hashes[index] = hash;
+        locations[index] = store(bytes);
+        size++;
+        if (size > hashes.length * LOAD_FACTOR) {
+            resize();
+        }
+        return true;
+    }
+
+    public boolean contains(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return hashes[indexOf(nonEmptyHash(bytes), bytes)] != EMPTY;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** @return slot of the value or the empty slot where it belongs */
+    private int indexOf(long hash, byte[] bytes) {
+        int mask = hashes.length - 1;
+        int index = slot(hash, mask);
+        while (hashes[index] != EMPTY && (hashes[index] != hash || !isStoredAt(locations[index], bytes))) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private long store(byte[] bytes) {
+        int length = LENGTH_BYTES + bytes.length;
+        if (pages.isEmpty() || pagePosition + length > pages.get(pages.size() - 1).length) {
+            pages.add(new byte[Math.max(PAGE_SIZE, length)]);
+            pagePosition = 0;
+        }
+        byte[] page = pages.get(pages.size() - 1);
+        int position = pagePosition;
+        writeLength(page, position, bytes.length);
+        System.arraycopy(bytes, 0, page, position + LENGTH_BYTES, bytes.length);
+        pagePosition += length;
+        return ((long) (pages.size() - 1) << 32) | position;
+    }
+
+    private boolean isStoredAt(long location, byte[] bytes) {
+        byte[] page = pages.get((int) (location >>> 32));
+        int position = (int) location;
+        if (readLength(page, position) != bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (page[position + LENGTH_BYTES + i] != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void resize() {
+        long[] oldHashes = hashes;
+        long[] oldLocations = locations;
+        hashes = new long[oldHashes.length * 2];
+        locations = new long[oldLocations.length * 2];
+        int mask = hashes.length - 1;
+        for (int i = 0; i < oldHashes.length; i++) {
+            if (oldHashes[i] != EMPTY) {
+                int index = slot(oldHashes[i], mask);
+                while (hashes[index] != EMPTY) {
+                    index = (index + 1) & mask;
+                }
+                hashes[index] = oldHashes[i];
+                locations[index] = oldLocations[i];
+            }
+        }
+    }
+
+    private static int slot(long hash, int mask) {
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    /** 64-bit FNV-1a. Strings of the same hash are still different elements, EMPTY is never used. */
+    protected long hash(byte[] bytes) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private long nonEmptyHash(byte[] bytes) {
+        long hash = hash(bytes);
+        return hash == EMPTY ? 1L : hash;
+    }
+
+    private static void writeLength(byte[] page, int position, int length) {
+        page[position] = (byte) (length >>> 24);
+        page[position + 1] = (byte) (length >>> 16);
+        page[position + 2] = (byte) (length >>> 8);
+        page[position + 3] = (byte) length;
+    }
+
+    private static int readLength(byte[] page, int position) {
+        return (page[position] & 0xFF) << 24 | (page[position + 1] & 0xFF) << 16
+                | (page[position + 2] & 0xFF) << 8 | (page[position + 3] & 0xFF);
+    }
+}
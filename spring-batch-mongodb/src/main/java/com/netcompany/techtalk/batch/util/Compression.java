@@ -0,0 +1,82 @@
+package com.netcompany.techtalk.batch.util;
+
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorInputStream;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorOutputStream;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compression of staged csv files. Every attempt of a download writes its own gzip member or LZ4 frame, and both
+ * formats allow them to be concatenated, so an interrupted download can be continued in the same file.
+ */
+public enum Compression {
+    NONE {
+        @Override
+        public OutputStream compress(OutputStream output) {
+            return output;
+        }
+    },
+    GZIP {
+        @Override
+        public OutputStream compress(OutputStream output) throws IOException {
+            return new GZIPOutputStream(output, BUFFER_SIZE);
+        }
+    },
+    LZ4 {
+        @Override
+        public OutputStream compress(OutputStream output) throws IOException {
+            return new FramedLZ4CompressorOutputStream(output);
+        }
+    };
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final byte[] GZIP_MAGIC = {(byte) 0x1f, (byte) 0x8b};
+    private static final byte[] LZ4_MAGIC = {(byte) 0x04, (byte) 0x22, (byte) 0x4d, (byte) 0x18};
+
+    public abstract OutputStream compress(OutputStream output) throws IOException;
+
+    /** Recognizes compression of the stream by its magic bytes, so staged files can be read whatever they are. */
+    public static Compression of(InputStream input) throws IOException {
+        if (startsWith(input, GZIP_MAGIC)) {
+            return GZIP;
+        } else if (startsWith(input, LZ4_MAGIC)) {
+            return LZ4;
+        }
+        return NONE;
+    }
+
+    /** Returns stream of decompressed content. */
+    public static InputStream decompress(InputStream input) throws IOException {
+        InputStream bufferedInput = new BufferedInputStream(input, BUFFER_SIZE);
+        switch (of(bufferedInput)) {
+            case GZIP:
+                return new GZIPInputStream(bufferedInput, BUFFER_SIZE);
+            case LZ4:
+                return new FramedLZ4CompressorInputStream(bufferedInput, true);
+            default:
+                return bufferedInput;
+        }
+    }
+
+    private static boolean startsWith(InputStream input, byte[] magic) throws IOException {
+        if (!input.markSupported()) {
+            throw new IllegalArgumentException("Stream has to support mark.");
+        }
+        input.mark(magic.length);
+        try {
+            for (byte expected : magic) {
+                if (input.read() != (expected & 0xff)) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            input.reset();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.netcompany.techtalk.batch.util;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads the source stream on a separate thread into a bounded buffer, so the source (e.g. network transfer)
+ * keeps flowing while the consumer of this stream is busy with something else (e.g. saving into db).
+ */
+public class ReadAheadInputStream extends InputStream {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final byte[] EOF = new byte[0];
+
+    private final InputStream source;
+    private final BlockingQueue<byte[]> chunks;
+    private final Thread pump;
+    private volatile Throwable failure;
+    private volatile boolean closed;
+    private byte[] current;
+    private int position;
+
+    public ReadAheadInputStream(InputStream source, int readAheadBytes, String threadName) {
+        this.source = source;
+        this.chunks = new ArrayBlockingQueue<>(Math.max(1, readAheadBytes / CHUNK_SIZE));
+        this.pump = new Thread(this::pump, threadName);
+        this.pump.setDaemon(true);
+        this.pump.start();
+    }
+
+    private void pump() {
+        try {
+            int length;
+            do {
+                byte[] buffer = new byte[CHUNK_SIZE];
+                length = IOUtils.read(source, buffer);
+                if (length > 0) {
+                    chunks.put(length == CHUNK_SIZE ? buffer : Arrays.copyOf(buffer, length));
+                }
+            } while (length == CHUNK_SIZE && !closed);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            // e.g. truncated chunk of http client or failure of decompressor, the consumer must not see end of stream
+            if (!closed) {
+                failure = e;
+            }
+        } finally {
+            try {
+                while (!closed && !chunks.offer(EOF)) {
+                    Thread.sleep(10);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return current[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int length = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, length);
+        position += length;
+        return length;
+    }
+
+    private boolean fill() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed.");
+        }
+        if (current != null && position < current.length) {
+            return true;
+        }
+        if (current != EOF) {
+            try {
+                current = chunks.take();
+                position = 0;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for data.");
+            }
+        }
+        if (current == EOF) {
+            if (failure != null) {
+                rethrowFailure();
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private void rethrowFailure() throws IOException {
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        throw new IOException("Reading of the source failed.", failure);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            pump.interrupt();
+            chunks.clear();
+            source.close();
+        }
+    }
+}
@@ -5,12 +5,13 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class TimeLog {
 
     private final static Logger logger = LoggerFactory.getLogger(TimeLog.class);
 
-    private static long nextTimeLogId = 0;
+    private static final AtomicLong nextTimeLogId = new AtomicLong();
 
     private long id;
     private String key;
@@ -24,7 +25,7 @@ public class TimeLog {
     public TimeLog(String key) {
         times = new ArrayList<>();
 
-        this.id = nextTimeLogId++;
+        this.id = nextTimeLogId.getAndIncrement();
         this.key = key;
         this.startTime = System.currentTimeMillis();
         this.lastTime = this.startTime;
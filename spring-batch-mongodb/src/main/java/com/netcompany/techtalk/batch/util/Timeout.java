@@ -20,6 +20,13 @@ public enum Timeout {
         return intValue * timeout.multiplier;
     }
 
+    /** The same as timeout, computed in long, so periods longer than about 24 days do not overflow. */
+    public static long timeoutMillis(String value) {
+        Timeout timeout = valueFor(value);
+        long longValue = Long.parseLong(value.substring(0, value.length() - 1));
+        return Math.multiplyExact(longValue, (long) timeout.multiplier);
+    }
+
     private static Timeout valueFor(String value) {
         if (value == null || value.trim().isEmpty()) {
             return DEFAULT;
@@ -0,0 +1,178 @@
+package com.netcompany.techtalk.batch.web;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Properties;
+
+/**
+ * Keeps downloaded data set files in a directory which survives the run. Files are stored under SHA-256 of their
+ * content and the index maps data set RID, branch and version (see {@link DataClient#getDataSetVersion}) to it,
+ * so a rerun or a retry of a failed step takes the file from the disk. Least recently used files are evicted
+ * when the cache is bigger than maxBytes.
+ */
+class CachingDataClient implements DataClient {
+
+    private static final Logger logger = LoggerFactory.getLogger(CachingDataClient.class);
+    private static final String INDEX_FILE = "index.properties";
+    private static final String OBJECTS_DIRECTORY = "objects";
+
+    private final DataClient dataClient;
+    private final Path objectsDirectory;
+    private final Path indexFile;
+    private final long maxBytes;
+
+    CachingDataClient(DataClient dataClient, String cacheDirectory, long maxBytes) {
+        this.dataClient = dataClient;
+        this.objectsDirectory = new File(cacheDirectory, OBJECTS_DIRECTORY).toPath();
+        this.indexFile = new File(cacheDirectory, INDEX_FILE).toPath();
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public String getSchemaJson(QueryColumnBuilder queryColumnBuilder, String url) throws Exception {
+        return dataClient.getSchemaJson(queryColumnBuilder, url);
+    }
+
+    @Override
+    public void downloadDataToFile(UrlBuilder urlBuilder, String filePath) throws Exception {
+        String version = dataClient.getDataSetVersion(urlBuilder);
+        if (version == null) {
+            logger.debug("Version of [{}] is not known, it is not cached.", urlBuilder.getDataSetName());
+            dataClient.downloadDataToFile(urlBuilder, filePath);
+            return;
+        }
+        String key = String.format("%s/%s/%s", urlBuilder.getDataSetRid(), urlBuilder.getBranchName(), version);
+        if (copyFromCache(key, filePath)) {
+            return;
+        }
+        dataClient.downloadDataToFile(urlBuilder, filePath);
+        store(key, Paths.get(filePath));
+    }
+
+    @Override
+    public InputStream openDataStream(UrlBuilder urlBuilder) throws Exception {
+        return dataClient.openDataStream(urlBuilder);
+    }
+
+    @Override
+    public String getDataSetVersion(UrlBuilder urlBuilder) {
+        return dataClient.getDataSetVersion(urlBuilder);
+    }
+
+    private synchronized boolean copyFromCache(String key, String filePath) throws IOException {
+        String hash = readIndex().getProperty(key);
+        if (hash == null) {
+            return false;
+        }
+        Path cachedFile = objectsDirectory.resolve(hash);
+        if (!Files.exists(cachedFile)) {
+            return false;
+        }
+        Path target = Paths.get(filePath);
+        FileUtils.forceMkdirParent(target.toFile());
+        Files.deleteIfExists(target);
+        link(target, cachedFile);
+        // modification time tells when the file was used last, eviction removes the oldest first
+        cachedFile.toFile().setLastModified(System.currentTimeMillis());
+        logger.info("[{}] taken from cache, {} bytes, SHA-256 {}.", key, Files.size(cachedFile), hash);
+        return true;
+    }
+
+    private synchronized void store(String key, Path file) throws IOException {
+        MessageDigest digest = sha256();
+        try (InputStream input = new DigestInputStream(Files.newInputStream(file), digest)) {
+            IOUtils.copy(input, NullOutputStream.NULL_OUTPUT_STREAM);
+        }
+        String hash = toHex(digest.digest());
+        Path cachedFile = objectsDirectory.resolve(hash);
+        if (!Files.exists(cachedFile)) {
+            Files.createDirectories(objectsDirectory);
+            link(cachedFile, file);
+        }
+        cachedFile.toFile().setLastModified(System.currentTimeMillis());
+
+        Properties index = readIndex();
+        index.setProperty(key, hash);
+        evict(index, hash);
+        writeIndex(index);
+        logger.debug("[{}] cached with SHA-256 {}.", key, hash);
+    }
+
+    /** Staged file is only read and then deleted, so it can share its content with the cached file. */
+    private static void link(Path link, Path existing) throws IOException {
+        try {
+            Files.createLink(link, existing);
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(existing, link);
+        }
+    }
+
+    /** Removes least recently used files, except the one just stored, until the cache fits into maxBytes. */
+    private void evict(Properties index, String storedHash) throws IOException {
+        File[] cachedFiles = objectsDirectory.toFile().listFiles(File::isFile);
+        if (cachedFiles == null) {
+            return;
+        }
+        long size = Arrays.stream(cachedFiles).mapToLong(File::length).sum();
+        Arrays.sort(cachedFiles, Comparator.comparingLong(File::lastModified));
+        for (int i = 0; i < cachedFiles.length && size > maxBytes; i++) {
+            if (cachedFiles[i].getName().equals(storedHash)) {
+                continue;
+            }
+            size -= cachedFiles[i].length();
+            Files.delete(cachedFiles[i].toPath());
+            index.values().removeIf(cachedFiles[i].getName()::equals);
+            logger.debug("[{}] evicted from cache, {} bytes are cached.", cachedFiles[i].getName(), size);
+        }
+    }
+
+    private Properties readIndex() throws IOException {
+        Properties index = new Properties();
+        if (Files.exists(indexFile)) {
+            try (Reader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+                index.load(reader);
+            }
+        }
+        return index;
+    }
+
+    private void writeIndex(Properties index) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(indexFile, StandardCharsets.UTF_8)) {
+            index.store(writer, "data set RID/branch/version = SHA-256 of the cached file");
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
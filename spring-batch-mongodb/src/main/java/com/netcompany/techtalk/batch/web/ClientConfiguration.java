@@ -1,5 +1,6 @@
 package com.netcompany.techtalk.batch.web;
 
+import org.apache.http.impl.client.CloseableHttpClient;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
@@ -24,21 +25,46 @@ class ClientConfiguration {
     private String logWaitIntervalInSeconds;
     @Value("${request.retry.limit}")
     private String requestRetryLimit;
+    @Value("${request.retry.backoff.initial:5s}")
+    private String retryBackoffInitial;
+    @Value("${request.retry.backoff.max:5m}")
+    private String retryBackoffMax;
+    @Value("${request.compression:true}")
+    private String requestCompression;
+    @Value("${csv.staging.compression:NONE}")
+    private String stagingCompression;
+    @Value("${csv.cache.enabled:false}")
+    private boolean cacheEnabled;
+    @Value("${csv.cache.directory:./csv-cache}")
+    private String cacheDirectory;
+    @Value("${csv.cache.maxBytes:10737418240}")
+    private long cacheMaxBytes;
 
     private RestTemplate restTemplate;
+    private CloseableHttpClient httpClient;
     private ExecutorService executorService;
 
     @Autowired
-    public ClientConfiguration(RestTemplate restTemplate, ExecutorService executorService) {
+    public ClientConfiguration(RestTemplate restTemplate, CloseableHttpClient httpClient, ExecutorService executorService) {
         this.restTemplate = restTemplate;
+        this.httpClient = httpClient;
         this.executorService = executorService;
     }
 
     @Bean
     public DataClient clientData() {
+        DataClient dataClient = createDataClient();
+        if (cacheEnabled) {
+            return new CachingDataClient(dataClient, cacheDirectory, cacheMaxBytes);
+        }
+        return dataClient;
+    }
+
+    private DataClient createDataClient() {
         if (applicationMode != null && applicationMode.equalsIgnoreCase(AppMode.FILE.name())) {
             return new FileClient();
         }
-        return new PalantirClient(restTemplate, token, executorService, logWhileWaitingForResponse, logWaitIntervalInSeconds, requestRetryLimit);
+        return new PalantirClient(restTemplate, httpClient, token, executorService, logWhileWaitingForResponse, logWaitIntervalInSeconds, requestRetryLimit,
+                retryBackoffInitial, retryBackoffMax, requestCompression, stagingCompression);
     }
 }
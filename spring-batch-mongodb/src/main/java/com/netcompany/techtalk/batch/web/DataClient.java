@@ -1,9 +1,27 @@
 package com.netcompany.techtalk.batch.web;
 
+import java.io.InputStream;
+
 /**Created by Pawel Gawedzki on 23-Jan-2019.*/
 public interface DataClient {
 
     String getSchemaJson(QueryColumnBuilder queryColumnBuilder, String url) throws Exception;
     void downloadDataToFile(UrlBuilder urlBuilder, final String filePath) throws Exception;
 
+    /**
+     * Opens the data set as a stream, so it can be parsed while it is still being transferred.
+     * Caller is responsible for closing the stream, which also releases the underlying connection.
+     * @param urlBuilder describes data set to download
+     * @return stream with the csv content of the data set
+     * @throws Exception when the stream could not be opened within configured number of attempts
+     */
+    InputStream openDataStream(UrlBuilder urlBuilder) throws Exception;
+
+    /**
+     * Cheap check of the data set version, nothing is downloaded.
+     * @param urlBuilder describes data set to check
+     * @return value which changes whenever the content of the data set changes, null when it is not known
+     */
+    String getDataSetVersion(UrlBuilder urlBuilder);
+
 }
@@ -5,6 +5,8 @@ import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -33,6 +35,19 @@ class FileClient implements DataClient {
         logger.info("File downloaded to directory [{}].", filePath);
     }
 
+    @Override
+    public InputStream openDataStream(UrlBuilder urlBuilder) throws Exception {
+        Path csvFilePath = getCsvFilePath(urlBuilder.getDataSetName());
+        logger.info("Streaming csv resource [{}].", csvFilePath.toString());
+        return Files.newInputStream(csvFilePath);
+    }
+
+    @Override
+    public String getDataSetVersion(UrlBuilder urlBuilder) {
+        File csvFile = getCsvFilePath(urlBuilder.getDataSetName()).toFile();
+        return String.format("%d-%d", csvFile.length(), csvFile.lastModified());
+    }
+
     private Path getSchemaFilePath(QueryColumnBuilder queryColumnBuilder) {
         Path path = null;
         String query = queryColumnBuilder.build();
@@ -1,11 +1,14 @@
 package com.netcompany.techtalk.batch.web;
 
+import com.netcompany.techtalk.batch.util.Compression;
 import com.netcompany.techtalk.batch.util.StringUtils;
-import org.apache.commons.io.FileUtils;
-import org.apache.http.HttpResponse;
+import com.netcompany.techtalk.batch.util.Timeout;
+import org.apache.http.Header;
+import org.apache.http.client.entity.GzipDecompressingEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.*;
@@ -13,7 +16,9 @@ import org.springframework.web.client.HttpServerErrorException;
 import org.springframework.web.client.RestTemplate;
 
 import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -25,20 +30,31 @@ class PalantirClient implements DataClient {
     private static final Logger logger = LoggerFactory.getLogger(PalantirClient.class);
 
     private final RestTemplate restTemplate;
+    private final CloseableHttpClient httpClient;
     private final String token;
     private final ExecutorService executorService;
     private final boolean logWhileWaitingForResponse;
     private final String logWaitIntervalInSeconds;
     private final String requestRetryLimit;
+    private final String retryBackoffInitial;
+    private final String retryBackoffMax;
+    private final boolean requestCompression;
+    private final Compression stagingCompression;
 
-    public PalantirClient(RestTemplate restTemplate, String token, ExecutorService executorService, String logWhileWaitingForResponse,
-                          String logWaitIntervalInSeconds, String requestRetryLimit) {
+    public PalantirClient(RestTemplate restTemplate, CloseableHttpClient httpClient, String token, ExecutorService executorService, String logWhileWaitingForResponse,
+                          String logWaitIntervalInSeconds, String requestRetryLimit, String retryBackoffInitial, String retryBackoffMax,
+                          String requestCompression, String stagingCompression) {
         this.restTemplate = restTemplate;
+        this.httpClient = httpClient;
         this.token = token;
         this.executorService = executorService;
         this.logWhileWaitingForResponse = "true".equals(logWhileWaitingForResponse);
         this.logWaitIntervalInSeconds = logWaitIntervalInSeconds;
         this.requestRetryLimit = requestRetryLimit;
+        this.retryBackoffInitial = retryBackoffInitial;
+        this.retryBackoffMax = retryBackoffMax;
+        this.requestCompression = "true".equals(requestCompression);
+        this.stagingCompression = Compression.valueOf(stagingCompression.toUpperCase());
     }
 
     private int getRequestRetryLimitInt() {
@@ -120,8 +136,52 @@ class PalantirClient implements DataClient {
     }
 
     public void downloadDataToFile(UrlBuilder urlBuilder, final String filePath) throws Exception {
-        boolean downloadComplete = false;
+        validateToken();
+
+        String url = urlBuilder.build();
+        ResumableDownload download = new ResumableDownload(url, new File(filePath), requestCompression, stagingCompression);
+
+        int attempt = 1;
+        do {
+            if (attempt > 1) {
+                backOff(attempt);
+            }
+            logger.info("Attempt {}. REST Request sent to [{}].", attempt, url);
+            try {
+                if (logWhileWaitingForResponse) {
+                    String subject = "download from";
+                    logWhileWaiting(subject, url, () -> download.resume(httpClient, token));
+                } else {
+                    download.resume(httpClient, token);
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.error("Error while downloading file from Palantir. {} bytes are downloaded.", download.getPosition(), e);
+            } finally {
+                attempt++;
+            }
+        } while (attempt <= getRequestRetryLimitInt() && !download.isComplete());
+
+        if (!download.isComplete()) {
+            String errMsg = String.format("[%d] attempts. Unable to download data from [%s].", attempt - 1, url);
+            logger.error(errMsg);
+            throw new Exception(errMsg);
+        }
+        logger.debug("File download completed.");
+    }
+
+    /** Waits initial backoff before the second attempt and twice as long before every next one, up to the max. */
+    private void backOff(int attempt) throws InterruptedException {
+        long delay = Timeout.timeout(retryBackoffInitial);
+        for (int i = 2; i < attempt && delay < Timeout.timeout(retryBackoffMax); i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, Timeout.timeout(retryBackoffMax));
+        logger.debug("Waiting {} ms before attempt {}.", delay, attempt);
+        Thread.sleep(delay);
+    }
 
+    @Override
+    public InputStream openDataStream(UrlBuilder urlBuilder) throws Exception {
         validateToken();
 
         String url = urlBuilder.build();
@@ -130,44 +190,79 @@ class PalantirClient implements DataClient {
         do {
             logger.info("Attempt {}. REST Request sent to [{}].", attempt, url);
 
-            try (CloseableHttpClient client = HttpClientBuilder.create().build()) {
+            try {
                 HttpGet request = new HttpGet(url);
                 request.setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + token);
+                request.setHeader(HttpHeaders.ACCEPT_ENCODING, requestCompression ? "gzip" : "identity");
 
-                HttpResponse response = client.execute(request);
+                CloseableHttpResponse response = httpClient.execute(request);
 
                 int responseCode = response.getStatusLine().getStatusCode();
 
                 logger.debug("Response Code: {}", responseCode);
                 if (responseCode == HttpStatus.OK.value()) {
-                    logger.debug("Saving response to file: [{}]", filePath);
-
-                    org.apache.http.HttpEntity entity = response.getEntity();
-                    if (logWhileWaitingForResponse) {
-                        String subject = "download from";
-                        logWhileWaiting(subject, url, (Callable<Void>) () -> {
-                            FileUtils.copyInputStreamToFile(entity.getContent(), new File(filePath));
-                            return null;
-                        });
-                    } else {
-                        FileUtils.copyInputStreamToFile(entity.getContent(), new File(filePath));
-                    }
-                    logger.debug("File download completed.");
-                    downloadComplete = true;
-                } else {
-                    logger.error("Error while downloading file from Palantir: [{}] {}", url, response.getStatusLine().getReasonPhrase());
+                    logger.debug("Streaming response from [{}].", url);
+                    // shared client does not decompress responses, gzip content is decompressed while it is read
+                    Header contentEncoding = response.getEntity().getContentEncoding();
+                    InputStream content = contentEncoding != null && "gzip".equalsIgnoreCase(contentEncoding.getValue())
+                            ? new GzipDecompressingEntity(response.getEntity()).getContent()
+                            : response.getEntity().getContent();
+                    return new ResponseInputStream(content, response);
                 }
+                logger.error("Error while opening stream from Palantir: [{}] {}", url, response.getStatusLine().getReasonPhrase());
+                response.close();
             } catch (IOException e) {
-                logger.error("Error while downloading file from Palantir.", e);
+                logger.error("Error while opening stream from Palantir.", e);
             } finally {
                 attempt++;
             }
-        } while (attempt <= getRequestRetryLimitInt() && !downloadComplete);
+        } while (attempt <= getRequestRetryLimitInt());
 
-        if (!downloadComplete) {
-            String errMsg = String.format("[%d] attempts. Unable to download data from [%s].", attempt - 1, url);
-            logger.error(errMsg);
-            throw new Exception(errMsg);
+        String errMsg = String.format("[%d] attempts. Unable to open data stream from [%s].", attempt - 1, url);
+        logger.error(errMsg);
+        throw new Exception(errMsg);
+    }
+
+    /** Sends HEAD request for the data set and takes its ETag or Last-Modified header as the version. */
+    @Override
+    public String getDataSetVersion(UrlBuilder urlBuilder) {
+        validateToken();
+
+        String url = urlBuilder.build();
+        HttpHead request = new HttpHead(url);
+        request.setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + token);
+        try (CloseableHttpResponse response = httpClient.execute(request)) {
+            int responseCode = response.getStatusLine().getStatusCode();
+            logger.debug("Response Code: {}", responseCode);
+            if (responseCode == HttpStatus.OK.value()) {
+                for (String name : new String[]{HttpHeaders.ETAG, HttpHeaders.LAST_MODIFIED}) {
+                    Header header = response.getFirstHeader(name);
+                    if (header != null) {
+                        return header.getValue();
+                    }
+                }
+            }
+            logger.warn("Version of [{}] is not known: {}", url, response.getStatusLine());
+        } catch (IOException e) {
+            logger.warn("Error while checking version of [{}].", url, e);
+        }
+        return null;
+    }
+
+    /** Keeps the response open until the stream is read and closed by the consumer. */
+    private static class ResponseInputStream extends FilterInputStream {
+        private final CloseableHttpResponse response;
+
+        ResponseInputStream(InputStream content, CloseableHttpResponse response) {
+            super(content);
+            this.response = response;
+        }
+
+        @Override
+        public void close() throws IOException {
+            // connection of a fully read response is already back in the pool, otherwise closing the response drops it
+            // instead of reading the rest of the content
+            response.close();
         }
     }
 }
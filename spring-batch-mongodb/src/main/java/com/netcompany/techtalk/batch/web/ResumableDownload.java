@@ -0,0 +1,219 @@
+package com.netcompany.techtalk.batch.web;
+
+import com.netcompany.techtalk.batch.util.Compression;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+/**
+ * Downloads a resource into a file. An interrupted transfer is resumed from the last written byte with a Range
+ * request, guarded by If-Range with the validator (ETag or Last-Modified) of the first response, so a resource
+ * changed in between is downloaded again from the beginning. SHA-256 of the file is computed while it is written
+ * and compared with the 'Digest' header when the server sends it.
+ * Gzip encoded response is staged as it is received, so ranges of the encoded representation stay valid.
+ * Otherwise the content is staged with the given compression, every attempt appends its own gzip member or LZ4 frame.
+ * Client must not decompress responses (see HttpClientBuilder.disableContentCompression).
+ */
+class ResumableDownload {
+
+    private static final Logger logger = LoggerFactory.getLogger(ResumableDownload.class);
+    private static final String DIGEST_HEADER = "Digest";
+    private static final String SHA_256 = "sha-256=";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String GZIP = "gzip";
+    private static final String IDENTITY = "identity";
+
+    private final String url;
+    private final File file;
+    private final boolean acceptGzip;
+    private final Compression stagingCompression;
+    private MessageDigest digest;
+    private long position;
+    private long stagedLength;
+    private Compression compression;
+    private long length;
+    private String validator;
+    private String expectedDigest;
+    private boolean complete;
+
+    ResumableDownload(String url, File file, boolean acceptGzip, Compression stagingCompression) {
+        this.url = url;
+        this.file = file;
+        this.acceptGzip = acceptGzip;
+        this.stagingCompression = stagingCompression;
+        restart();
+    }
+
+    long getPosition() {
+        return position;
+    }
+
+    boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Requests the rest of the resource and appends it to the file.
+     * @return true when the whole resource is downloaded and verified
+     * @exception IOException when the transfer is interrupted, bytes written so far are kept for the next attempt
+     */
+    boolean resume(CloseableHttpClient client, String token) throws IOException {
+        HttpGet request = new HttpGet(url);
+        request.setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + token);
+        request.setHeader(HttpHeaders.ACCEPT_ENCODING, acceptGzip ? GZIP : IDENTITY);
+        boolean resumed = position > 0 && validator != null;
+        if (resumed) {
+            request.setHeader(HttpHeaders.RANGE, String.format("bytes=%d-", position));
+            request.setHeader(HttpHeaders.IF_RANGE, validator);
+            logger.debug("Resuming download of [{}] from byte {}.", url, position);
+        }
+
+        try (CloseableHttpResponse response = client.execute(request)) {
+            int responseCode = response.getStatusLine().getStatusCode();
+            logger.debug("Response Code: {}", responseCode);
+
+            if (responseCode == HttpStatus.OK.value()) {
+                if (resumed) {
+                    logger.info("[{}] does not support resuming or has changed, download starts from the beginning.", url);
+                }
+                restart();
+                validator = firstHeader(response, HttpHeaders.ETAG, HttpHeaders.LAST_MODIFIED);
+                expectedDigest = sha256Of(response.getFirstHeader(DIGEST_HEADER));
+                length = response.getEntity().getContentLength();
+                boolean gzipEncoded = response.containsHeader(HttpHeaders.CONTENT_ENCODING)
+                        && GZIP.equalsIgnoreCase(response.getFirstHeader(HttpHeaders.CONTENT_ENCODING).getValue());
+                compression = gzipEncoded ? Compression.NONE : stagingCompression;
+                logger.debug("Staging [{}] {}.", url, gzipEncoded ? "gzip encoded" : "with compression " + compression);
+            } else if (responseCode == HttpStatus.PARTIAL_CONTENT.value() && resumed) {
+                long start = rangeStart(response.getFirstHeader(HttpHeaders.CONTENT_RANGE));
+                if (start != position) {
+                    throw new IOException(String.format("Expected range from byte %d but got %d.", position, start));
+                }
+            } else if (responseCode == HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value() && resumed && position == length) {
+                return verify();
+            } else {
+                logger.error("Error while downloading file from Palantir: [{}] {}", url, response.getStatusLine().getReasonPhrase());
+                if (responseCode == HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value()) {
+                    restart();
+                }
+                return false;
+            }
+            append(response.getEntity());
+        }
+
+        if (length >= 0 && position < length) {
+            throw new IOException(String.format("Transfer of [%s] stopped at byte %d of %d.", url, position, length));
+        }
+        return verify();
+    }
+
+    private void append(HttpEntity entity) throws IOException {
+        // bytes behind the last finished attempt were not digested, so they are dropped before appending
+        try (RandomAccessFile partialFile = new RandomAccessFile(file, "rw")) {
+            partialFile.setLength(stagedLength);
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream content = entity.getContent();
+             OutputStream output = compression.compress(new FileOutputStream(file, true))) {
+            int read;
+            while ((read = content.read(buffer)) != -1) {
+                write(output, buffer, read);
+                digest.update(buffer, 0, read);
+                position += read;
+            }
+        } finally {
+            // every attempt finishes its gzip member or LZ4 frame, so the next one can append after it
+            stagedLength = position > 0 ? file.length() : 0;
+        }
+    }
+
+    private void write(OutputStream output, byte[] buffer, int length) throws IOException {
+        try {
+            output.write(buffer, 0, length);
+        } catch (IOException e) {
+            // staged file may be broken, so download starts from the beginning
+            restart();
+            throw e;
+        }
+    }
+
+    private boolean verify() throws IOException {
+        String actualDigest = Base64.getEncoder().encodeToString(digest.digest());
+        if (expectedDigest != null && !expectedDigest.equals(actualDigest)) {
+            restart();
+            throw new IOException(String.format("Checksum of [%s] does not match. Expected %s, got %s.", url, expectedDigest, actualDigest));
+        }
+        logger.debug("Downloaded {} bytes from [{}], {} bytes staged, SHA-256 {}.", position, url, stagedLength, actualDigest);
+        complete = true;
+        return true;
+    }
+
+    private void restart() {
+        digest = sha256();
+        position = 0;
+        stagedLength = 0;
+        length = -1;
+        validator = null;
+        expectedDigest = null;
+    }
+
+    private static String firstHeader(CloseableHttpResponse response, String... names) {
+        for (String name : names) {
+            Header header = response.getFirstHeader(name);
+            // weak ETags can not be used in If-Range
+            if (header != null && !header.getValue().startsWith("W/")) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static String sha256Of(Header digestHeader) {
+        if (digestHeader == null) {
+            return null;
+        }
+        for (String value : digestHeader.getValue().split(",")) {
+            if (value.trim().toLowerCase().startsWith(SHA_256)) {
+                return value.trim().substring(SHA_256.length());
+            }
+        }
+        return null;
+    }
+
+    /** Content-Range: bytes 100-999/1000 */
+    private static long rangeStart(Header contentRange) throws IOException {
+        if (contentRange == null) {
+            throw new IOException("Partial content without Content-Range header.");
+        }
+        String value = contentRange.getValue().trim();
+        try {
+            return Long.parseLong(value.substring(value.indexOf(' ') + 1, value.indexOf('-')));
+        } catch (RuntimeException e) {
+            throw new IOException(String.format("Wrong Content-Range [%s].", value), e);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -35,6 +35,18 @@ public class UrlBuilder {
         return this;
     }
 
+    String getDataSetName() {
+        return dataSetName;
+    }
+
+    String getDataSetRid() {
+        return dataSetRid;
+    }
+
+    String getBranchName() {
+        return branchName;
+    }
+
     String build() {
         if (StringUtils.nullOrEmpty(basicUrl)) {
             throw new RuntimeException("Palantir URL is not specified. Please update application.properties with proper value for the key 'gcss.endpoint'.");
@@ -0,0 +1,37 @@
+package com.netcompany.techtalk.batch.step;
+
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class AdaptiveBulkControllerTest {
+
+    private final BulkPacker packer = new BulkPacker(1000, 4);
+    private final AdaptiveBulkController controller = new AdaptiveBulkController(
+            "test", 2, 8, 100, 4, packer, LoggerFactory.getLogger(getClass())
+    );
+
+    @Test
+    public void givenFastAcknowledgements_whenOnAcknowledged_thenBytesGrowAdditivelyUpToMax() {
+        controller.onAcknowledged(10, 4, 50);
+        assertThat(packer.getTargetBytes(), is(6L));
+
+        controller.onAcknowledged(10, 6, 50);
+        controller.onAcknowledged(10, 8, 50);
+
+        assertThat(packer.getTargetBytes(), is(8L));
+    }
+
+    @Test
+    public void givenSlowAcknowledgementOrError_whenNotified_thenBytesAreHalvedDownToMin() {
+        controller.onAcknowledged(10, 4, 500);
+        assertThat(packer.getTargetBytes(), is(2L));
+
+        controller.onError(new IllegalStateException("server error"));
+
+        assertThat(packer.getTargetBytes(), is(2L));
+        assertThat(controller.getInFlight(), is(1));
+    }
+}
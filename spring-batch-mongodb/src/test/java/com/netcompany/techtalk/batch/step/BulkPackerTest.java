@@ -0,0 +1,59 @@
+package com.netcompany.techtalk.batch.step;
+
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.bson.types.Decimal128;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+
+public class BulkPackerTest {
+
+    @Test
+    public void givenDocumentsOfDifferentSizes_whenPack_thenBatchesDoNotExceedTargetBytes() {
+        List<Integer> sizes = Arrays.asList(40, 40, 30, 90, 10, 10, 120, 5);
+
+        List<List<Integer>> batches = new ArrayList<>();
+        new BulkPacker(1000, 100).pack(sizes, Integer::intValue).forEach(batches::add);
+
+        assertThat(batches, equalTo(Arrays.asList(
+                Arrays.asList(40, 40), Arrays.asList(30), Arrays.asList(90, 10), Arrays.asList(10), Arrays.asList(120), Arrays.asList(5)
+        )));
+    }
+
+    @Test
+    public void givenNoTargetBytes_whenPack_thenBatchesHaveBatchSizeDocuments() {
+        List<Integer> sizes = Arrays.asList(1, 2, 3, 4, 5);
+
+        List<Integer> batchSizes = new ArrayList<>();
+        new BulkPacker(2, 0).pack(sizes, Integer::intValue).forEach(batch -> batchSizes.add(batch.size()));
+
+        assertThat(batchSizes, equalTo(Arrays.asList(2, 2, 1)));
+    }
+
+    @Test
+    public void givenDocument_whenBsonSize_thenItIsSizeOfEncodedDocument() {
+        Document document = new Document("_id", new ObjectId())
+                .append("NAME", "zażółć 😀")
+                .append("COUNT", 12)
+                .append("TOTAL", 12L)
+                .append("PRICE", new Decimal128(new BigDecimal("1.5")))
+                .append("EMPTY", null)
+                .append("ACTIVE", true)
+                .append("CREATED", new Date());
+
+        int encodedSize = new RawBsonDocument(document, new DocumentCodec()).getByteBuffer().remaining();
+
+        assertThat(BsonSize.of(document), is(encodedSize));
+    }
+}
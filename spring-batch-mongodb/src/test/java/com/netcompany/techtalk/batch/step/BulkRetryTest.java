@@ -0,0 +1,135 @@
+package com.netcompany.techtalk.batch.step;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoNotPrimaryException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.WriteRequest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.BsonDocument;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.mongodb.UncategorizedMongoDbException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.fail;
+
+public class BulkRetryTest {
+
+    private static final int WRITE_CONFLICT = 112;
+    private static final int DOCUMENT_VALIDATION_FAILURE = 121;
+    private static final int DUPLICATE_KEY_ERROR = 11000;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final List<List<String>> sentBatches = new ArrayList<>();
+    private final List<String> rejectedDocuments = new ArrayList<>();
+
+    @Test
+    public void givenTransientAndFatalErrors_whenInsert_thenOnlyTransientlyFailedDocumentsAreSentAgain() throws Exception {
+        BulkRetry bulkRetry = bulkRetry(3);
+
+        int rejected = bulkRetry.insert(Arrays.asList("a", "b", "c", "d"), documents -> {
+            sentBatches.add(documents);
+            if (sentBatches.size() == 1) {
+                throw new DataIntegrityViolationException("bulk write failed", bulkWriteException(
+                        error(WRITE_CONFLICT, 1), error(DOCUMENT_VALIDATION_FAILURE, 2), error(WRITE_CONFLICT, 3)));
+            }
+        }, (document, reason) -> rejectedDocuments.add(document + " " + reason));
+
+        assertThat(rejected, is(1));
+        assertThat(sentBatches, equalTo(Arrays.asList(Arrays.asList("a", "b", "c", "d"), Arrays.asList("b", "d"))));
+        assertThat(rejectedDocuments, equalTo(Collections.singletonList("c E121 failed")));
+        assertThat(meterRegistry.counter("mongodb.bulk.retries", "dataSet", "test").count(), is(1.0));
+        assertThat(meterRegistry.counter("mongodb.bulk.retries.documents", "dataSet", "test").count(), is(2.0));
+    }
+
+    @Test
+    public void givenDocumentsFailingAgain_whenInsert_thenLoadingFailsAfterMaxAttempts() throws Exception {
+        BulkRetry bulkRetry = bulkRetry(2);
+
+        try {
+            bulkRetry.insert(Arrays.asList("a", "b"), documents -> {
+                sentBatches.add(documents);
+                throw bulkWriteException(error(WRITE_CONFLICT, 0));
+            }, (document, reason) -> rejectedDocuments.add(document));
+            fail("Loading should fail.");
+        } catch (Exception expected) {
+            assertThat(expected.getMessage().contains("1 document(s) of [test] are not inserted after 2 retries"), is(true));
+        }
+        assertThat(sentBatches.size(), is(3));
+        assertThat(rejectedDocuments.isEmpty(), is(true));
+    }
+
+    @Test
+    public void givenPrimarySteppedDownMidBatch_whenInsert_thenWholeBatchIsSentAgainAndInsertedDocumentsAreNotRejected() throws Exception {
+        BulkRetry bulkRetry = bulkRetry(3);
+
+        int rejected = bulkRetry.insert(Arrays.asList("a", "b", "c"), documents -> {
+            sentBatches.add(documents);
+            if (sentBatches.size() == 1) {
+                throw new UncategorizedMongoDbException("not master", new MongoNotPrimaryException(new ServerAddress()));
+            }
+            throw new DataIntegrityViolationException("bulk write failed", bulkWriteException(error(DUPLICATE_KEY_ERROR, 0)));
+        }, (document, reason) -> rejectedDocuments.add(document));
+
+        assertThat(rejected, is(0));
+        assertThat(sentBatches, equalTo(Arrays.asList(Arrays.asList("a", "b", "c"), Arrays.asList("a", "b", "c"))));
+        assertThat(rejectedDocuments.isEmpty(), is(true));
+        assertThat(meterRegistry.counter("mongodb.bulk.retries.documents", "dataSet", "test").count(), is(3.0));
+    }
+
+    @Test
+    public void givenResumedLoad_whenInsertDocumentsWithDuplicateIds_thenTheyAreNeitherRejectedNorSentAgain() throws Exception {
+        BulkRetry bulkRetry = bulkRetry(3, true);
+
+        int rejected = bulkRetry.insert(Arrays.asList("a", "b", "c"), documents -> {
+            sentBatches.add(documents);
+            throw new DataIntegrityViolationException("bulk write failed", bulkWriteException(
+                    error(DUPLICATE_KEY_ERROR, 0), error(DUPLICATE_KEY_ERROR, 1)));
+        }, (document, reason) -> rejectedDocuments.add(document));
+
+        assertThat(rejected, is(0));
+        assertThat(sentBatches.size(), is(1));
+        assertThat(rejectedDocuments.isEmpty(), is(true));
+        assertThat(meterRegistry.counter("mongodb.bulk.retries", "dataSet", "test").count(), is(0.0));
+    }
+
+    @Test
+    public void givenLoadFromScratch_whenInsertDocumentsWithDuplicateIds_thenTheyAreRejected() throws Exception {
+        BulkRetry bulkRetry = bulkRetry(3, false);
+
+        int rejected = bulkRetry.insert(Arrays.asList("a", "b"), documents -> {
+            sentBatches.add(documents);
+            throw new DataIntegrityViolationException("bulk write failed", bulkWriteException(error(DUPLICATE_KEY_ERROR, 1)));
+        }, (document, reason) -> rejectedDocuments.add(document));
+
+        assertThat(rejected, is(1));
+        assertThat(rejectedDocuments, equalTo(Collections.singletonList("b")));
+    }
+
+    private BulkRetry bulkRetry(int maxAttempts) {
+        return bulkRetry(maxAttempts, false);
+    }
+
+    private BulkRetry bulkRetry(int maxAttempts, boolean loadedAgain) {
+        return new BulkRetry("test", maxAttempts, 1, 2, loadedAgain, meterRegistry, LoggerFactory.getLogger(getClass()));
+    }
+
+    private static BulkWriteError error(int code, int index) {
+        return new BulkWriteError(code, "failed", new BsonDocument(), index);
+    }
+
+    private static MongoBulkWriteException bulkWriteException(BulkWriteError... errors) {
+        BulkWriteResult result = BulkWriteResult.acknowledged(WriteRequest.Type.INSERT, 0, null, Collections.emptyList());
+        return new MongoBulkWriteException(result, Arrays.asList(errors), null, new ServerAddress());
+    }
+}
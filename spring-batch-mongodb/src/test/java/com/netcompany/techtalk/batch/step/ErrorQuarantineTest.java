@@ -0,0 +1,54 @@
+package com.netcompany.techtalk.batch.step;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.fail;
+
+public class ErrorQuarantineTest {
+
+    private final List<Integer> savedBatches = new ArrayList<>();
+
+    @Test
+    public void givenWrongRows_whenAddAndFinish_thenTheyAreSavedInBatches() throws Exception {
+        ErrorQuarantine quarantine = quarantine(1.0);
+
+        for (int i = 0; i < 7; i++) {
+            quarantine.countRow();
+            quarantine.add(new Document("row", i));
+        }
+        quarantine.finish();
+
+        assertThat(savedBatches, equalTo(Arrays.asList(3, 3, 1)));
+    }
+
+    @Test
+    public void givenTooManyWrongRows_whenAdd_thenLoadingIsAborted() throws Exception {
+        ErrorQuarantine quarantine = quarantine(0.1);
+        for (int i = 0; i < 10; i++) {
+            quarantine.countRow();
+        }
+        quarantine.add(new Document("row", 1));
+
+        try {
+            quarantine.add(new Document("row", 2));
+            fail("Loading should be aborted.");
+        } catch (Exception expected) {
+            assertThat(expected.getMessage().contains("2 of 10 rows are wrong"), is(true));
+        }
+    }
+
+    private ErrorQuarantine quarantine(double maxErrorRatio) {
+        return new ErrorQuarantine("test", 3, maxErrorRatio, 10, 10, 100,
+                errorObjects -> savedBatches.add(errorObjects.size()), new SimpleMeterRegistry(), LoggerFactory.getLogger(getClass()));
+    }
+}
@@ -0,0 +1,42 @@
+package com.netcompany.techtalk.batch.step;
+
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+
+public class LoadPipelineTest {
+
+    @Test
+    public void givenRows_whenRun_thenEveryRowIsConvertedAndWritten() throws Exception {
+        List<Integer> rows = IntStream.rangeClosed(1, 10_001).boxed().collect(Collectors.toList());
+        AtomicLong sum = new AtomicLong();
+        AtomicLong chunks = new AtomicLong();
+
+        new LoadPipeline<Integer, Long>("test", 3, 2, 2, LoggerFactory.getLogger(LoadPipelineTest.class))
+                .run(rows.iterator(), 100, chunk -> chunk.stream().mapToLong(Integer::longValue).sum(), value -> {
+                    sum.addAndGet(value);
+                    chunks.incrementAndGet();
+                });
+
+        assertThat(sum.get(), is(equalTo(10_001L * 10_002L / 2)));
+        assertThat(chunks.get(), is(equalTo(101L)));
+    }
+
+    @Test(expected = Exception.class)
+    public void givenFailingWriter_whenRun_thenThrowException() throws Exception {
+        List<Integer> rows = IntStream.rangeClosed(1, 10_000).boxed().collect(Collectors.toList());
+
+        new LoadPipeline<Integer, Integer>("test", 2, 2, 1, LoggerFactory.getLogger(LoadPipelineTest.class))
+                .run(rows.iterator(), 10, List::size, value -> {
+                    throw new IllegalStateException("Write failed.");
+                });
+    }
+}
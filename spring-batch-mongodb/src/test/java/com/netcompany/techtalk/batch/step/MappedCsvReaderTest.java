@@ -0,0 +1,99 @@
+package com.netcompany.techtalk.batch.step;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+
+public class MappedCsvReaderTest {
+
+    private Path csvFile;
+
+    @Before
+    public void setUp() throws IOException {
+        csvFile = Files.createTempFile("mapped-csv", ".csv");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(csvFile);
+    }
+
+    @Test
+    public void givenQuotedAndMultilineValues_whenRead_thenReturnSameRowsAsCommonsCsv() throws IOException {
+        String csv = "a,b,c\r\n" +
+                "\"quoted, with comma\",\"say \"\"hi\"\"\",zażółć\r\n" +
+                "\r\n" +
+                "\"multi\nline\"  ,,\"\"\n" +
+                "x\"y,  spaces  ,\r" +
+                "last,row,without,eol";
+
+        assertSameRows(csv, 64);
+    }
+
+    @Test
+    public void givenRandomCsv_whenReadWithSmallWindows_thenReturnSameRowsAsCommonsCsv() throws IOException {
+        Random random = new Random(3);
+        String[] values = {"", "abc", "x,y", "say \"\"hi\"\"", "zażółć", "multi\r\nline", "1.5", " "};
+        StringBuilder csv = new StringBuilder();
+        for (int row = 0; row < 500; row++) {
+            int columns = 1 + random.nextInt(5);
+            for (int column = 0; column < columns; column++) {
+                String value = values[random.nextInt(values.length)];
+                boolean quote = value.contains(",") || value.contains("\"") || value.contains("\n") || random.nextBoolean();
+                csv.append(column == 0 ? "" : ",").append(quote ? "\"" + value + "\"" : value);
+            }
+            csv.append(random.nextBoolean() ? "\r\n" : "\n");
+        }
+
+        for (long windowSize = 80; windowSize < 100; windowSize++) {
+            assertSameRows(csv.toString(), windowSize);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void givenUnfinishedQuote_whenRead_thenThrowException() throws IOException {
+        Files.write(csvFile, "a,\"b\r\n".getBytes(StandardCharsets.UTF_8));
+
+        try (CsvReader reader = new MappedCsvReader(csvFile)) {
+            reader.forEach(row -> {});
+        }
+    }
+
+    private void assertSameRows(String csv, long windowSize) throws IOException {
+        byte[] bytes = csv.getBytes(StandardCharsets.UTF_8);
+        Files.write(csvFile, bytes);
+
+        List<List<String>> expected;
+        try (CsvReader reader = new CommonsCsvReader(new ByteArrayInputStream(bytes))) {
+            expected = rows(reader);
+        }
+        try (CsvReader reader = new MappedCsvReader(csvFile, windowSize)) {
+            assertThat(rows(reader), is(equalTo(expected)));
+        }
+    }
+
+    private List<List<String>> rows(CsvReader reader) {
+        List<List<String>> rows = new ArrayList<>();
+        for (CsvRow row : reader) {
+            List<String> values = new ArrayList<>();
+            for (int i = 0; i < row.size(); i++) {
+                values.add(row.get(i));
+            }
+            rows.add(values);
+        }
+        return rows;
+    }
+}
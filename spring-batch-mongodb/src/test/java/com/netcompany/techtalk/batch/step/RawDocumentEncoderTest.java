@@ -0,0 +1,89 @@
+package com.netcompany.techtalk.batch.step;
+
+import org.bson.BsonBoolean;
+import org.bson.BsonDateTime;
+import org.bson.BsonDocument;
+import org.bson.BsonDouble;
+import org.bson.BsonInt64;
+import org.bson.BsonNull;
+import org.bson.BsonString;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+
+public class RawDocumentEncoderTest {
+
+    private static final String CSV = "\"say \"\"hi\"\"\",zażółć,\n";
+    private static final String[] HEADERS = {"QUOTED", "UNICODE", "EMPTY"};
+
+    @Test
+    public void givenRowOfCommonsCsv_whenEncode_thenReturnDocumentWithStringValuesAndCreated() throws IOException {
+        try (CsvReader reader = new CommonsCsvReader(new ByteArrayInputStream(CSV.getBytes(StandardCharsets.UTF_8)))) {
+            assertThat(encode(reader), equalTo(expectedDocument()));
+        }
+    }
+
+    @Test
+    public void givenRowOfMappedCsv_whenEncode_thenReturnDocumentWithStringValuesAndCreated() throws IOException {
+        Path csvFile = Files.createTempFile("raw-encoder", ".csv");
+        try {
+            Files.write(csvFile, CSV.getBytes(StandardCharsets.UTF_8));
+            try (CsvReader reader = new MappedCsvReader(csvFile)) {
+                assertThat(encode(reader), equalTo(expectedDocument()));
+            }
+        } finally {
+            Files.deleteIfExists(csvFile);
+        }
+    }
+
+    @Test
+    public void givenTypedColumns_whenEncode_thenReturnDocumentWithNativeValues() throws IOException {
+        String csv = "42,1.5,true,2019-03-13 10:39:00,2019-03-13T10:39:00+01:00,2019-03-13,,not a number\n";
+        String[] headers = {"ID", "RATIO", "FLAG", "DEP_TIME_EXP", "ARR_TIME_EXP", "DEP_DATE", "EMPTY", "WRONG"};
+        ColumnType[] types = {ColumnType.of("LONG"), ColumnType.of("DOUBLE"), ColumnType.of("BOOLEAN"), ColumnType.of("TIMESTAMP"),
+                ColumnType.of("TIMESTAMP"), ColumnType.of("DATE"), ColumnType.of("INTEGER"), ColumnType.of("INTEGER")};
+
+        try (CsvReader reader = new CommonsCsvReader(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)))) {
+            BsonDocument document = withoutObjectId(new RawDocumentEncoder(headers, types, "CREATED").encode(reader.iterator().next(), 1000L));
+
+            long depTime = Instant.parse("2019-03-13T10:39:00Z").toEpochMilli();
+            assertThat(document, equalTo(new BsonDocument("ID", new BsonInt64(42))
+                    .append("RATIO", new BsonDouble(1.5))
+                    .append("FLAG", BsonBoolean.TRUE)
+                    .append("DEP_TIME_EXP", new BsonDateTime(depTime))
+                    .append("ARR_TIME_EXP", new BsonDateTime(depTime - 3600_000))
+                    .append("DEP_DATE", new BsonDateTime(Instant.parse("2019-03-13T00:00:00Z").toEpochMilli()))
+                    .append("EMPTY", BsonNull.VALUE)
+                    .append("WRONG", new BsonString("not a number"))
+                    .append("CREATED", new BsonDateTime(1000L))));
+        }
+    }
+
+    private BsonDocument encode(CsvReader reader) throws IOException {
+        RawDocumentEncoder encoder = new RawDocumentEncoder(HEADERS, new ColumnType[]{ColumnType.STRING, ColumnType.STRING, ColumnType.STRING}, "CREATED");
+        return withoutObjectId(encoder.encode(reader.iterator().next(), 1000L));
+    }
+
+    private static BsonDocument withoutObjectId(BsonDocument encoded) {
+        BsonDocument document = new BsonDocument();
+        document.putAll(encoded);
+        assertThat(document.remove("_id").isObjectId(), is(true));
+        return document;
+    }
+
+    private BsonDocument expectedDocument() {
+        return new BsonDocument("QUOTED", new BsonString("say \"hi\""))
+                .append("UNICODE", new BsonString("zażółć"))
+                .append("EMPTY", new BsonString(""))
+                .append("CREATED", new BsonDateTime(1000L));
+    }
+}
@@ -0,0 +1,43 @@
+package com.netcompany.techtalk.batch.util;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+
+public class CompactStringSetTest {
+
+    @Test
+    public void givenManyValues_whenAdd_thenAllAreContained() {
+        CompactStringSet set = new CompactStringSet(16);
+
+        for (int value = 0; value < 100_000; value++) {
+            assertThat(set.add("key\u001F" + value), is(true));
+        }
+
+        assertThat(set.size(), is(equalTo(100_000)));
+        assertThat(set.contains("key\u001F0"), is(true));
+        assertThat(set.contains("key\u001F99999"), is(true));
+        assertThat(set.contains("key\u001F100000"), is(false));
+        assertThat(set.add("key\u001F42"), is(false));
+    }
+
+    @Test
+    public void givenValuesWithTheSameHash_whenAdd_thenTheyAreDifferentElements() {
+        CompactStringSet set = new CompactStringSet() {
+            @Override
+            protected long hash(byte[] bytes) {
+                return 7L;
+            }
+        };
+        set.add("zażółć");
+        set.add("");
+
+        assertThat(set.add("other"), is(true));
+        assertThat(set.add("zażółć"), is(false));
+        assertThat(set.contains(""), is(true));
+        assertThat(set.contains("missing"), is(false));
+        assertThat(set.size(), is(equalTo(3)));
+    }
+}
@@ -0,0 +1,61 @@
+package com.netcompany.techtalk.batch.util;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+
+public class ReadAheadInputStreamTest {
+
+    @Test
+    public void givenSourceBiggerThanBuffer_whenRead_thenReturnSameBytes() throws IOException {
+        byte[] data = new byte[1024 * 1024 + 17];
+        new Random(7).nextBytes(data);
+
+        try (InputStream inputStream = new ReadAheadInputStream(new ByteArrayInputStream(data), 128 * 1024, "test")) {
+            assertThat(IOUtils.toByteArray(inputStream), is(equalTo(data)));
+        }
+    }
+
+    @Test
+    public void givenEmptySource_whenRead_thenReturnEndOfStream() throws IOException {
+        try (InputStream inputStream = new ReadAheadInputStream(new ByteArrayInputStream(new byte[0]), 1024, "test")) {
+            assertThat(inputStream.read(), is(equalTo(-1)));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void givenFailingSource_whenRead_thenThrowSourceException() throws IOException {
+        InputStream failing = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("Connection reset.");
+            }
+        };
+
+        try (InputStream inputStream = new ReadAheadInputStream(failing, 1024, "test")) {
+            IOUtils.toByteArray(inputStream);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void givenSourceFailingWithRuntimeException_whenRead_thenThrowItInsteadOfEndOfStream() throws IOException {
+        InputStream failing = new InputStream() {
+            @Override
+            public int read() {
+                throw new IllegalStateException("Truncated chunk.");
+            }
+        };
+
+        try (InputStream inputStream = new ReadAheadInputStream(failing, 1024, "test")) {
+            IOUtils.toByteArray(inputStream);
+        }
+    }
+}
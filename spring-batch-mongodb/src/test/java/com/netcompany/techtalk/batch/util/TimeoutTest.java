@@ -30,4 +30,11 @@ public class TimeoutTest {
 
         assertThat(Timeout.timeout(m), is(equalTo(45 * 60 * 60 * 1000)));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void givenThirtyDaysInHours_when_timeoutMillis_then_returnValueWithoutOverflow() {
+        String m = "720h";
+
+        assertThat(Timeout.timeoutMillis(m), is(equalTo(720L * 60 * 60 * 1000)));
+    }
+}
@@ -0,0 +1,100 @@
+package com.netcompany.techtalk.batch.web;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class CachingDataClientTest {
+
+    private File directory;
+    private String filePath;
+    private FakeDataClient dataClient;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("caching-data-client").toFile();
+        filePath = new File(directory, "csv/data_set.csv").getPath();
+        dataClient = new FakeDataClient();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.forceDelete(directory);
+    }
+
+    @Test
+    public void givenSameVersion_whenDownloadAgain_thenFileIsTakenFromCache() throws Exception {
+        CachingDataClient cachingDataClient = new CachingDataClient(dataClient, new File(directory, "cache").getPath(), 1024);
+        dataClient.put("rid-1", "v1", "a,b\n");
+
+        cachingDataClient.downloadDataToFile(urlBuilder("rid-1"), filePath);
+        Files.delete(new File(filePath).toPath());
+        cachingDataClient.downloadDataToFile(urlBuilder("rid-1"), filePath);
+
+        assertThat(dataClient.downloads, is(1));
+        assertThat(FileUtils.readFileToString(new File(filePath), StandardCharsets.UTF_8), is("a,b\n"));
+    }
+
+    @Test
+    public void givenCacheOverBudget_whenDownload_thenLeastRecentlyUsedFileIsEvicted() throws Exception {
+        CachingDataClient cachingDataClient = new CachingDataClient(dataClient, new File(directory, "cache").getPath(), 10);
+        dataClient.put("rid-1", "v1", "1111111\n");
+        dataClient.put("rid-2", "v1", "2222222\n");
+
+        cachingDataClient.downloadDataToFile(urlBuilder("rid-1"), filePath);
+        Files.delete(new File(filePath).toPath());
+        cachingDataClient.downloadDataToFile(urlBuilder("rid-2"), filePath);
+        Files.delete(new File(filePath).toPath());
+        cachingDataClient.downloadDataToFile(urlBuilder("rid-1"), filePath);
+
+        assertThat(dataClient.downloads, is(3));
+        assertThat(FileUtils.readFileToString(new File(filePath), StandardCharsets.UTF_8), is("1111111\n"));
+    }
+
+    private UrlBuilder urlBuilder(String dataSetRid) {
+        return new UrlBuilder().branchName("master").dataSetName("data_set").dataSetRid(dataSetRid);
+    }
+
+    private static class FakeDataClient implements DataClient {
+        private final Map<String, String> versions = new HashMap<>();
+        private final Map<String, String> contents = new HashMap<>();
+        private int downloads;
+
+        void put(String dataSetRid, String version, String content) {
+            versions.put(dataSetRid, version);
+            contents.put(dataSetRid, content);
+        }
+
+        @Override
+        public String getSchemaJson(QueryColumnBuilder queryColumnBuilder, String url) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void downloadDataToFile(UrlBuilder urlBuilder, String filePath) throws Exception {
+            downloads++;
+            FileUtils.writeStringToFile(new File(filePath), contents.get(urlBuilder.getDataSetRid()), StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public InputStream openDataStream(UrlBuilder urlBuilder) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getDataSetVersion(UrlBuilder urlBuilder) {
+            return versions.get(urlBuilder.getDataSetRid());
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.netcompany.techtalk.batch.web;
+
+import com.netcompany.techtalk.batch.util.Compression;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.fail;
+
+public class ResumableDownloadTest {
+
+    private static final String ETAG = "\"v1\"";
+
+    private ServerSocket server;
+    private File file;
+    private byte[] data;
+    private String digest;
+    private volatile int breakAfter;
+    private volatile String etag;
+    private final List<String> ranges = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void setUp() throws Exception {
+        data = new byte[1024 * 1024];
+        new Random(11).nextBytes(data);
+        digest = Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(data));
+        etag = ETAG;
+        file = File.createTempFile("resumable", ".csv");
+
+        server = new ServerSocket(0, 10, InetAddress.getLoopbackAddress());
+        Thread serverThread = new Thread(this::acceptConnections, "resumable-download-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+        Files.deleteIfExists(file.toPath());
+    }
+
+    @Test
+    public void givenInterruptedTransfer_whenResume_thenDownloadOnlyRestAndFileIsSameAsComplete() throws Exception {
+        breakAfter = data.length / 3;
+        ResumableDownload download = new ResumableDownload(url(), file, false, Compression.NONE);
+
+        try (CloseableHttpClient client = HttpClientBuilder.create().build()) {
+            try {
+                download.resume(client, "token");
+                fail("Transfer should be interrupted.");
+            } catch (IOException expected) {
+                breakAfter = -1;
+            }
+            assertThat(download.resume(client, "token"), is(true));
+        }
+
+        assertThat(ranges, equalTo(Arrays.asList(null, "bytes=" + data.length / 3 + "-")));
+        assertThat(Files.readAllBytes(file.toPath()), equalTo(data));
+    }
+
+    @Test
+    public void givenResourceChangedBetweenAttempts_whenResume_thenDownloadFromBeginning() throws Exception {
+        breakAfter = data.length / 2;
+        ResumableDownload download = new ResumableDownload(url(), file, false, Compression.NONE);
+
+        try (CloseableHttpClient client = HttpClientBuilder.create().build()) {
+            try {
+                download.resume(client, "token");
+                fail("Transfer should be interrupted.");
+            } catch (IOException expected) {
+                breakAfter = -1;
+                etag = "\"v2\"";
+            }
+            assertThat(download.resume(client, "token"), is(true));
+        }
+
+        assertThat(Files.readAllBytes(file.toPath()), equalTo(data));
+        assertThat(download.getPosition(), is((long) data.length));
+    }
+
+    @Test
+    public void givenGzipStaging_whenInterruptedTransferIsResumed_thenDecompressedFileIsSameAsComplete() throws Exception {
+        breakAfter = data.length / 3;
+        ResumableDownload download = new ResumableDownload(url(), file, false, Compression.GZIP);
+
+        try (CloseableHttpClient client = HttpClientBuilder.create().build()) {
+            try {
+                download.resume(client, "token");
+                fail("Transfer should be interrupted.");
+            } catch (IOException expected) {
+                breakAfter = -1;
+            }
+            assertThat(download.resume(client, "token"), is(true));
+        }
+
+        try (InputStream staged = Compression.decompress(Files.newInputStream(file.toPath()))) {
+            assertThat(IOUtils.toByteArray(staged), equalTo(data));
+        }
+    }
+
+    private String url() {
+        return String.format("http://127.0.0.1:%d/data", server.getLocalPort());
+    }
+
+    private void acceptConnections() {
+        while (!server.isClosed()) {
+            // every response closes its connection, so the client opens a new one for each attempt
+            try (Socket socket = server.accept()) {
+                serve(socket);
+            } catch (IOException e) {
+                // server is closed
+            }
+        }
+    }
+
+    private void serve(Socket socket) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+        Map<String, String> headers = new HashMap<>();
+        String line = reader.readLine();
+        while ((line = reader.readLine()) != null && !line.isEmpty()) {
+            headers.put(line.substring(0, line.indexOf(':')).toLowerCase(), line.substring(line.indexOf(':') + 1).trim());
+        }
+        String range = headers.get("range");
+        ranges.add(range);
+
+        StringBuilder response = new StringBuilder();
+        int start = 0;
+        if (range != null && etag.equals(headers.get("if-range"))) {
+            start = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+            response.append("HTTP/1.1 206 Partial Content\r\n")
+                    .append(String.format("Content-Range: bytes %d-%d/%d\r\n", start, data.length - 1, data.length));
+        } else {
+            response.append("HTTP/1.1 200 OK\r\n");
+        }
+        response.append("ETag: ").append(etag).append("\r\n")
+                .append("Digest: SHA-256=").append(digest).append("\r\n")
+                .append("Content-Length: ").append(data.length - start).append("\r\n")
+                .append("Connection: close\r\n\r\n");
+
+        OutputStream output = socket.getOutputStream();
+        output.write(response.toString().getBytes(StandardCharsets.US_ASCII));
+        // when breakAfter is set the connection is closed in the middle of the body
+        output.write(data, start, breakAfter > 0 ? breakAfter : data.length - start);
+        output.flush();
+    }
+}